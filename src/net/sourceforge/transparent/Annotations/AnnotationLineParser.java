@@ -2,62 +2,98 @@ package net.sourceforge.transparent.Annotations;
 
 import com.intellij.openapi.vcs.VcsException;
 
+/**
+ * Parses the output of "annotate" with the format "%Sd | %-16.16u | %-40.40Vn | %Vn | "
+ * (delimited by {@link #FIELDS_DELIMITER}), which explicitely delimits date,
+ * user, revision number (cut to the column width, for display) and the full
+ * version of every source line. A value printed as "." (or not printed) is
+ * the same as in the line above.
+ *
+ * A parser keeps this "same as above" state, so every annotation run uses its
+ * own instance. Lines are scanned in place: a value becomes a new string only
+ * when it differs from the value of the line above.
+ */
 public class AnnotationLineParser
 {
   public final static String FIELDS_DELIMITER = " #|# ";
-  public final static String FIELDS_DELIMITER_RE = " #\\|# ";
-  private static final AnnotationLineInfo _cachedValues = new AnnotationLineInfo();
 
-  private AnnotationLineParser() {}
+  private String myDate;
+  private String myCommitter;
+  private String myRevision;
+  private String myVersion;
+  private int mySourceStart;
+  private int mySourceEnd;
 
-  public static class AnnotationLineInfo
+  /**
+   * Parses all lines of the output into the annotation.
+   */
+  public void parse( final String output, final CCaseFileAnnotation annotation ) throws VcsException
   {
-    public String duration;
-    public String committer;
-    public String date;
-    public String revision;
-    public String source;
+    final int length = output.length();
+    int lineStart = 0;
+    while( lineStart < length )
+    {
+      int lineEnd = output.indexOf( '\n', lineStart );
+      final int next = lineEnd == -1 ? length : lineEnd + 1;
+      if( lineEnd == -1 )
+        lineEnd = length;
+      if( lineEnd > lineStart && output.charAt( lineEnd - 1 ) == '\r' )
+        lineEnd--;
+
+      parseLine( output, lineStart, lineEnd );
+      annotation.addLineInfo( myDate, myRevision, myVersion, myCommitter, output, mySourceStart, mySourceEnd );
+      lineStart = next;
+    }
   }
 
-  public static AnnotationLineInfo parse( final String line ) throws VcsException
+  /**
+   * Parses the line text[start, end); the values are then available from
+   * the getters.
+   */
+  public void parseLine( final String text, final int start, final int end ) throws VcsException
   {
-    AnnotationLineInfo info = new AnnotationLineInfo();
-    String[] tokens = line.split( FIELDS_DELIMITER_RE );
+    final int dateEnd = findDelimiter( text, start, start, end );
+    final int committerEnd = findDelimiter( text, start, dateEnd + FIELDS_DELIMITER.length(), end );
+    final int revisionEnd = findDelimiter( text, start, committerEnd + FIELDS_DELIMITER.length(), end );
+    final int versionEnd = findDelimiter( text, start, revisionEnd + FIELDS_DELIMITER.length(), end );
 
-    //  We rely on the formatter string: "%Sd | %-16.16u | %-40.40Vn | " which
-    //  exlicitely delimits date, user and revision number.
+    myDate = getValue( text, start, dateEnd, myDate );
+    myCommitter = getValue( text, dateEnd + FIELDS_DELIMITER.length(), committerEnd, myCommitter );
+    myRevision = getValue( text, committerEnd + FIELDS_DELIMITER.length(), revisionEnd, myRevision );
+    myVersion = getValue( text, revisionEnd + FIELDS_DELIMITER.length(), versionEnd, myVersion );
 
-    try
-    {
-      if( isValueableToken( tokens[ 0 ] ) )
-        _cachedValues.date = info.date = tokens[ 0 ].trim();
-      else
-        info.date = _cachedValues.date;
-
-      if( isValueableToken( tokens[ 1 ] ) )
-        _cachedValues.committer = info.committer = tokens[ 1 ].trim();
-      else
-        info.committer = _cachedValues.committer;
-
-      if( isValueableToken( tokens[ 2 ] ) )
-        _cachedValues.revision = info.revision = tokens[ 2 ].trim();
-      else
-        info.revision = _cachedValues.revision;
-
-      //  Source line may be empty.
-      info.source = (tokens.length > 3) ? tokens[ 3 ] : "";
-    }
-    catch( Exception e )
-    {
-      throw new VcsException( "Can not parse annotation log: " + line );
-    }
+    //  Source line may be empty.
+    mySourceStart = versionEnd + FIELDS_DELIMITER.length();
+    mySourceEnd = end;
+  }
+
+  public String getDate()      {  return myDate;       }
+  public String getCommitter() {  return myCommitter;  }
+  public String getRevision()  {  return myRevision;   }
+  public String getVersion()   {  return myVersion;    }
+  public int getSourceStart()  {  return mySourceStart;  }
+  public int getSourceEnd()    {  return mySourceEnd;    }
 
-    return info;
+  private static int findDelimiter( final String text, final int lineStart, final int from, final int end ) throws VcsException
+  {
+    final int index = text.indexOf( FIELDS_DELIMITER, from );
+    if( index == -1 || index + FIELDS_DELIMITER.length() > end )
+      throw new VcsException( "Can not parse annotation log: " + text.substring( lineStart, end ) );
+    return index;
   }
 
-  private static boolean isValueableToken( final String token )
+  private static String getValue( final String text, int start, int end, final String previous )
   {
-    String trimmed = token.trim();
-    return (trimmed.length() > 0) && !trimmed.equals( "." );
+    while( start < end && text.charAt( start ) <= ' ' )
+      start++;
+    while( end > start && text.charAt( end - 1 ) <= ' ' )
+      end--;
+
+    final int length = end - start;
+    if( length == 0 || (length == 1 && text.charAt( start ) == '.') )
+      return previous;
+    if( previous != null && previous.length() == length && text.regionMatches( start, previous, 0, length ) )
+      return previous;
+    return text.substring( start, end );
   }
 }
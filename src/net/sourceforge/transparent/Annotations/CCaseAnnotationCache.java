@@ -0,0 +1,104 @@
+package net.sourceforge.transparent.Annotations;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.StreamUtil;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.Runner;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Annotations of versions. Annotation of "element@@version" never changes
+ * unless the version is CHECKEDOUT, so it is kept in the annotation store on
+ * disk and is reused by all later requests.
+ *
+ * The version selected in the view is resolved anew for every request (one
+ * "describe"): in a dynamic view it moves whenever somebody checks in, and
+ * an update or a config spec change moves it in any view.
+ */
+public class CCaseAnnotationCache
+{
+  @NonNls private static final String DESCRIBE_CMD = "describe";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+  @NonNls private static final String VERSION_FORMAT = "%Vn";
+  //  Appended to the version in the store key; changes with the "annotate"
+  //  format, so that output of an older format is never parsed.
+  @NonNls private static final String OUTPUT_FORMAT_SIG = "#2";
+
+  public static CCaseAnnotationCache getInstance( Project project )
+  {
+    return ServiceManager.getService( project, CCaseAnnotationCache.class );
+  }
+
+  /**
+   * @return version of the file selected in the view (possibly CHECKEDOUT,
+   *         whose annotation is never stored), or null if it is not a vob
+   *         object.
+   */
+  @Nullable
+  public String getSelectedVersion( String path )
+  {
+    return getSelectedVersion( path, new Runner() );
+  }
+
+  /**
+   * The same, run with the given runner so that the caller may cancel it.
+   */
+  @Nullable
+  public String getSelectedVersion( String path, Runner runner )
+  {
+    final String out = TransparentVcs.cleartoolWithOutput( runner, DESCRIBE_CMD, FMT_SWITCH, VERSION_FORMAT, path );
+    if( !runner.isSuccessfull() )
+      return null;
+    if( out == null )
+      return null;
+
+    final String version = out.trim();
+    return version.isEmpty() || version.contains( "\n" ) ? null : version;
+  }
+
+  /**
+   * @return output of "cleartool annotate" for the version if it was stored
+   */
+  @Nullable
+  public String getAnnotation( String path, String version )
+  {
+    final byte[] data = CCaseContentStore.getAnnotationStore().getCached( path, version + OUTPUT_FORMAT_SIG );
+    if( data == null )
+      return null;
+
+    try( GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( data ) ) )
+    {
+      return new String( StreamUtil.loadFromStream( in ), StandardCharsets.UTF_8 );
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.info( "Can not read stored annotation of " + path, e );
+      return null;
+    }
+  }
+
+  public void putAnnotation( String path, String version, String output )
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream( output.length() / 4 );
+    try( GZIPOutputStream out = new GZIPOutputStream( bytes ) )
+    {
+      out.write( output.getBytes( StandardCharsets.UTF_8 ) );
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.info( "Can not store annotation of " + path, e );
+      return;
+    }
+    CCaseContentStore.getAnnotationStore().putData( path, version + OUTPUT_FORMAT_SIG, bytes.toByteArray() );
+  }
+}
@@ -1,7 +1,6 @@
 package net.sourceforge.transparent.Annotations;
 
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
 import com.intellij.openapi.vcs.VcsException;
@@ -11,14 +10,17 @@ import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.History.CCaseFileRevision;
+import net.sourceforge.transparent.Runner;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class CCaseAnnotationProvider implements AnnotationProvider
 {
   @NonNls private final static String BRANCH_SIG = "branch";
   @NonNls private final static String ERROR_SIG = "Invalid manager operation";
+  @NonNls private final static String VERSION_DELIM = "@@";
   @NonNls private final static String ERROR_TEXT = "Probably type manager does not contain Annotate method for this file type";
 
   Project project;
@@ -36,39 +38,72 @@ public class CCaseAnnotationProvider implements AnnotationProvider
     
     FileStatus status = FileStatusManager.getInstance(project).getStatus( file );
     if( status == FileStatus.HIJACKED )
-      canonicalName += "@@";
+      return runAnnotation( file, canonicalName + VERSION_DELIM, null );
 
-    return runAnnotation(file, canonicalName );
+    //  If the file is being annotated in the background, its result is
+    //  stored in a moment; there is no need to start one more annotate.
+    CCaseBackgroundAnnotator.getInstance( project ).awaitAnnotation( file );
+
+    //  The version selected in the view is the key to the stored annotation.
+    final String version = CCaseAnnotationCache.getInstance( project ).getSelectedVersion( canonicalName );
+    return runAnnotation( file, canonicalName, version );
   }
 
   public FileAnnotation annotate( VirtualFile file, VcsFileRevision vcsRev ) throws VcsException
   {
     String canonicalName = VcsUtil.getCanonicalPath( file.getPath() );
-    canonicalName += vcsRev.getRevisionNumber().asString();
+    final String version = vcsRev.getRevisionNumber().asString();
 
-    return runAnnotation(file, canonicalName );
+    return runAnnotation( file, canonicalName + version, canonicalName, version );
   }
 
-  private FileAnnotation runAnnotation(final VirtualFile file, final String path ) throws VcsException
+  private FileAnnotation runAnnotation( final VirtualFile file, final String path, @Nullable final String version ) throws VcsException
   {
-    @NonNls String format = "\"%Sd" + AnnotationLineParser.FIELDS_DELIMITER +
-                            "%-16.16u" + AnnotationLineParser.FIELDS_DELIMITER +
-                            "%-40.40Vn" + AnnotationLineParser.FIELDS_DELIMITER + "\"";
-    String output = TransparentVcs.cleartoolWithOutput( "annotate", "-out", "-", "-nco", "-nhe", "-fmt", format, path );
-
-    //  Show more or less descriptive message for this CCase error. 
-    if( output.contains( ERROR_SIG ) )
-      throw new VcsException( ERROR_TEXT );
-    
+    return runAnnotation( file, path, path, version );
+  }
+
+  /**
+   * @param path    path to pass to "annotate"
+   * @param element path of the element, to store the annotation under
+   * @param version version being annotated, null if it is not known
+   */
+  private FileAnnotation runAnnotation( final VirtualFile file, final String path, final String element,
+                                        @Nullable final String version ) throws VcsException
+  {
+    final String output = getAnnotationOutput( project, path, element, version, new Runner() );
+
+    //  Every run has its own parser, so several files may be annotated at once.
     CCaseFileAnnotation annotation = new CCaseFileAnnotation(project, file);
-    String[] lines = LineTokenizer.tokenize( output, false );
+    new AnnotationLineParser().parse( output, annotation );
+    return annotation;
+  }
 
-    for( String line : lines )
+  /**
+   * @return output of "annotate" for the path, taken from the annotation
+   *         cache if it is there; otherwise it is stored there if the command
+   *         succeeds (and is not cancelled through the runner).
+   */
+  static String getAnnotationOutput( final Project project, final String path, final String element,
+                                     @Nullable final String version, final Runner runner ) throws VcsException
+  {
+    final CCaseAnnotationCache cache = CCaseAnnotationCache.getInstance( project );
+    String output = version == null ? null : cache.getAnnotation( element, version );
+    if( output == null )
     {
-      AnnotationLineParser.AnnotationLineInfo info = AnnotationLineParser.parse( line );
-      annotation.addLineInfo( info.date, info.revision, info.committer, info.source );
+      @NonNls String format = "\"%Sd" + AnnotationLineParser.FIELDS_DELIMITER +
+                              "%-16.16u" + AnnotationLineParser.FIELDS_DELIMITER +
+                              "%-40.40Vn" + AnnotationLineParser.FIELDS_DELIMITER +
+                              "%Vn" + AnnotationLineParser.FIELDS_DELIMITER + "\"";
+      output = TransparentVcs.cleartoolWithOutput( runner, "annotate", "-out", "-", "-nco", "-nhe", "-fmt", format, path );
+
+      //  Show more or less descriptive message for this CCase error.
+      if( output.contains( ERROR_SIG ) )
+        throw new VcsException( ERROR_TEXT );
+
+      if( version != null && runner.isSuccessfull() )
+        cache.putAnnotation( element, version, output );
     }
-    return annotation;
+    return output;
   }
 
   public boolean isAnnotationValid(@NotNull VcsFileRevision rev )
@@ -0,0 +1,239 @@
+package net.sourceforge.transparent.Annotations;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.Runner;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Annotates files in the background as they are opened in editors (if it is
+ * switched on in the options), so that "Annotate" takes the annotation from
+ * the annotation cache at once.
+ *
+ * Files are taken from a queue by at most {@link #MAX_RUNNING} workers of the
+ * background pool of the cleartool executor (shared with the prefetch of base
+ * revisions), so the interactive commands never wait for it. Closing the
+ * editor drops the file from the queue or kills its running "describe" or
+ * "annotate". Checked out files are not queued (their CHECKEDOUT version is
+ * never stored), and files with a long line of versions (whose
+ * annotate is the most expensive) or large files are not annotated at all.
+ */
+public class CCaseBackgroundAnnotator implements Disposable
+{
+  private static final int MAX_RUNNING = 1;
+  private static final int MAX_VERSION_NUMBER = 200;
+  private static final long MAX_FILE_LENGTH = 2L * 1024 * 1024;
+
+  private final Project myProject;
+  private final TransparentVcs host;
+
+  //  Guarded by the queue, as are the running jobs and the number of workers.
+  private final Deque<VirtualFile> myQueue = new ArrayDeque<>();
+  private final Map<VirtualFile, Job> myRunning = new HashMap<>();
+  private int myWorkers;
+  private volatile boolean myDisposed;
+
+  private static class Job
+  {
+    private final Runner runner = new Runner();
+    private final CountDownLatch done = new CountDownLatch( 1 );
+  }
+
+  public CCaseBackgroundAnnotator( Project project )
+  {
+    myProject = project;
+    host = TransparentVcs.getInstance( project );
+    project.getMessageBus().connect( this ).subscribe( FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerListener()
+    {
+      @Override
+      public void fileOpened( @NotNull FileEditorManager source, @NotNull VirtualFile file )
+      {
+        if( host.getConfig().preAnnotateOpenedFiles )
+          schedule( file );
+      }
+
+      @Override
+      public void fileClosed( @NotNull FileEditorManager source, @NotNull VirtualFile file )
+      {
+        if( !source.isFileOpen( file ) )
+          cancel( file );
+      }
+    });
+  }
+
+  public static CCaseBackgroundAnnotator getInstance( Project project )
+  {
+    return ServiceManager.getService( project, CCaseBackgroundAnnotator.class );
+  }
+
+  public void schedule( final VirtualFile file )
+  {
+    if( !isAnnotatable( file ) )
+      return;
+
+    synchronized( myQueue )
+    {
+      if( myQueue.contains( file ) || myRunning.containsKey( file ) )
+        return;
+      myQueue.addLast( file );
+
+      if( myWorkers < MAX_RUNNING )
+      {
+        myWorkers++;
+        CleartoolExecutor.submitBackground( this::drain );
+      }
+    }
+  }
+
+  public void cancel( final VirtualFile file )
+  {
+    synchronized( myQueue )
+    {
+      myQueue.remove( file );
+      final Job job = myRunning.get( file );
+      if( job != null )
+        job.runner.cancel();
+    }
+  }
+
+  /**
+   * Waits until the background annotation of the file (if it is running)
+   * is finished and stored.
+   */
+  public void awaitAnnotation( final VirtualFile file )
+  {
+    final Job job;
+    synchronized( myQueue )
+    {
+      job = myRunning.get( file );
+    }
+    if( job == null )
+      return;
+
+    try
+    {
+      job.done.await();
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException( e );
+    }
+  }
+
+  @Override
+  public void dispose()
+  {
+    myDisposed = true;
+    synchronized( myQueue )
+    {
+      myQueue.clear();
+      for( Job job : myRunning.values() )
+      {
+        job.runner.cancel();
+      }
+    }
+  }
+
+  //  Called in the event dispatch thread, so only cheap checks are made here.
+  private boolean isAnnotatable( final VirtualFile file )
+  {
+    if( myDisposed || host.getConfig().isOffline() || file.isDirectory() || !file.isInLocalFileSystem() ||
+        file.getFileType().isBinary() || file.getLength() > MAX_FILE_LENGTH ||
+        !host.fileIsUnderVcs( VcsUtil.getFilePath( file ) ) )
+      return false;
+
+    return FileStatusManager.getInstance( myProject ).getStatus( file ) == FileStatus.NOT_CHANGED;
+  }
+
+  private Void drain()
+  {
+    while( true )
+    {
+      final VirtualFile file;
+      final Job job;
+      synchronized( myQueue )
+      {
+        file = myDisposed ? null : myQueue.pollFirst();
+        if( file == null )
+        {
+          myWorkers--;
+          return null;
+        }
+        job = new Job();
+        myRunning.put( file, job );
+      }
+
+      try
+      {
+        annotate( file, job );
+      }
+      finally
+      {
+        synchronized( myQueue )
+        {
+          myRunning.remove( file );
+        }
+        job.done.countDown();
+      }
+    }
+  }
+
+  private void annotate( final VirtualFile file, final Job job )
+  {
+    if( !file.isValid() )
+      return;
+
+    final String path = VcsUtil.getCanonicalPath( file.getPath() );
+    final CCaseAnnotationCache cache = CCaseAnnotationCache.getInstance( myProject );
+    try
+    {
+      //  Both commands share the runner of the job: once cancelled, it
+      //  kills "describe" and does not start "annotate".
+      final String version = cache.getSelectedVersion( path, job.runner );
+      if( !CCaseContentStore.isImmutable( version ) || isLongHistory( version ) || cache.getAnnotation( path, version ) != null )
+        return;
+
+      CCaseAnnotationProvider.getAnnotationOutput( myProject, path, path, version, job.runner );
+    }
+    catch( VcsException | RuntimeException e )
+    {
+      TransparentVcs.LOG.debug( "Can not annotate " + path + " in background", e );
+    }
+  }
+
+  /**
+   * The number of the version on its branch (e.g. 57 in "\main\int\57") is
+   * taken as the measure of the history length annotate has to walk.
+   */
+  private static boolean isLongHistory( final String version )
+  {
+    final int index = Math.max( version.lastIndexOf( '\\' ), version.lastIndexOf( '/' ) );
+    try
+    {
+      return Integer.parseInt( version.substring( index + 1 ).trim() ) > MAX_VERSION_NUMBER;
+    }
+    catch( NumberFormatException e )
+    {
+      return false;
+    }
+  }
+}
@@ -7,17 +7,35 @@ import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
+import net.sourceforge.transparent.History.CCaseRevisionNumber;
 import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
 
+/**
+ * Annotation is stored by columns: the distinct (date, revision, version,
+ * author) values form a small table, and every line keeps only an index into it.
+ * Lines of one version share all their values, so a large file costs an
+ * int per line besides its text.
+ */
 public class CCaseFileAnnotation extends FileAnnotation
 {
-  private final StringBuffer myContentBuffer = new StringBuffer();
-  private final List<LineInfo> myLineInfos = new ArrayList<>();
+  @NonNls private static final String[] DATE_FORMATS = { "yyyy-MM-dd", "dd-MMM-yy" };
+  @NonNls private static final String VERSION_DELIM = "@@";
+
+  //  Written only while the annotation is filled by the provider.
+  private final List<LineValues> myValues = new ArrayList<>();
+  private final Map<LineValues, Integer> myValueIndexes = new HashMap<>();
+  private final Map<String, String> myStrings = new HashMap<>();
+  private int[] myLineValues = new int[ 256 ];
+  private int myLineCount;
+  private StringBuilder myContentBuilder = new StringBuilder();
+  private String myContent;
+
   private final VirtualFile myFile;
   private VFSForAnnotationListener myListener;
 
@@ -28,32 +46,74 @@ public class CCaseFileAnnotation extends FileAnnotation
     VirtualFileManager.getInstance().addVirtualFileListener(myListener);
   }
 
-  static class LineInfo
+  private static class LineValues
   {
     private final String date;
     private final String revisionSig;
+    private final String version;
     private final String author;
+    private Date myParsedDate;
+    private boolean myDateParsed;
+    private VcsRevisionNumber myRevisionNumber;
 
-    public LineInfo( final String date, final String rev, final String author )
+    LineValues( final String date, final String rev, final String version, final String author )
     {
       this.date = date;
       revisionSig = rev;
+      this.version = version;
       this.author = author;
     }
 
     public String getDate()     {  return date;  }
     public String getRevision() {  return revisionSig;  }
+    public String getVersion()  {  return version != null ? version : revisionSig;  }
     public String getAuthor()   {  return author;  }
+
+    @Nullable
+    public synchronized Date getParsedDate()
+    {
+      if( !myDateParsed )
+      {
+        myParsedDate = parseDate( date );
+        myDateParsed = true;
+      }
+      return myParsedDate;
+    }
+
+    /**
+     * Built from the full version, in the same form as the revision numbers
+     * of the history ("@@\main\3"), so that they can be matched.
+     */
+    public synchronized VcsRevisionNumber getRevisionNumber()
+    {
+      if( myRevisionNumber == null )
+        myRevisionNumber = new CCaseRevisionNumber( version != null ? VERSION_DELIM + version : revisionSig, 0 );
+      return myRevisionNumber;
+    }
+
+    @Override
+    public boolean equals( final Object o )
+    {
+      if( this == o ) return true;
+      if( !(o instanceof LineValues) ) return false;
+      final LineValues other = (LineValues)o;
+      return Objects.equals( date, other.date ) && Objects.equals( revisionSig, other.revisionSig ) &&
+             Objects.equals( version, other.version ) && Objects.equals( author, other.author );
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Objects.hash( date, revisionSig, version, author );
+    }
   }
 
   private final LineAnnotationAspect DATE_ASPECT = new CCAnnotationAspect(CCAnnotationAspect.DATE, true)
   {
     public String getValue( int lineNumber )
     {
-      if (myLineInfos.size() <= lineNumber || lineNumber < 0)
-        return "";
-      else
-        return myLineInfos.get( lineNumber ).getDate();
+      final LineValues values = getValues( lineNumber );
+      return values == null ? "" : values.getDate();
     }
   };
 
@@ -61,10 +121,8 @@ public class CCaseFileAnnotation extends FileAnnotation
   {
     public String getValue(int lineNumber)
     {
-      if (myLineInfos.size() <= lineNumber || lineNumber < 0)
-        return "";
-      else
-        return myLineInfos.get(lineNumber).getRevision();
+      final LineValues values = getValues( lineNumber );
+      return values == null ? "" : values.getRevision();
     }
   };
 
@@ -72,10 +130,8 @@ public class CCaseFileAnnotation extends FileAnnotation
   {
     public String getValue(int lineNumber)
     {
-      if (myLineInfos.size() <= lineNumber || lineNumber < 0)
-        return "";
-      else
-        return myLineInfos.get(lineNumber).getAuthor();
+      final LineValues values = getValues( lineNumber );
+      return values == null ? "" : values.getAuthor();
     }
   };
 
@@ -85,11 +141,8 @@ public class CCaseFileAnnotation extends FileAnnotation
 
   public String getToolTip(int lineNumber)
   {
-    if (myLineInfos.size() <= lineNumber || lineNumber < 0) {
-      return "";
-    }
-    final LineInfo info = myLineInfos.get(lineNumber);
-    return info.getRevision();
+    final LineValues values = getValues( lineNumber );
+    return values == null ? "" : values.getVersion();
   }
 
   public LineAnnotationAspect[] getAspects()
@@ -97,24 +150,27 @@ public class CCaseFileAnnotation extends FileAnnotation
     return new LineAnnotationAspect[]{ REVISION_ASPECT, DATE_ASPECT, AUTHOR_ASPECT };
   }
 
-  public String getAnnotatedContent()
+  public synchronized String getAnnotatedContent()
   {
-    return myContentBuffer.toString();
+    //  The text is turned into a single string once, when it is first asked.
+    if( myContent == null )
+    {
+      myContent = myContentBuilder.toString();
+      myContentBuilder = null;
+    }
+    return myContent;
   }
 
   @Nullable
   public VcsRevisionNumber getLineRevisionNumber(final int lineNumber) {
-    return null;
+    final LineValues values = getValues( lineNumber );
+    return values == null ? null : values.getRevisionNumber();
   }
 
   @Override
   public Date getLineDate(int lineNumber) {
-    if (myLineInfos.size() <= lineNumber || lineNumber < 0) {
-      return null;
-    }
-    final LineInfo info = myLineInfos.get(lineNumber);
-    // todo
-    return null;
+    final LineValues values = getValues( lineNumber );
+    return values == null ? null : values.getParsedDate();
   }
 
   @Nullable
@@ -123,15 +179,99 @@ public class CCaseFileAnnotation extends FileAnnotation
   }
 
   @Override
-  public int getLineCount() {
-    return myLineInfos.size();
+  public synchronized int getLineCount() {
+    return myLineCount;
   }
 
-  public void addLineInfo( final String date, final String revision, final String author, final String line)
+  public void addLineInfo( final String date, final String revision, final String version, final String author,
+                           final CharSequence line)
   {
-    myLineInfos.add( new LineInfo( date, revision, author ) );
-    myContentBuffer.append( line );
-    myContentBuffer.append( "\n" );
+    addLineInfo( date, revision, version, author, line, 0, line.length() );
+  }
+
+  /**
+   * Adds the line text[start, end), without copying it out of the text.
+   */
+  public synchronized void addLineInfo( final String date, final String revision, final String version, final String author,
+                                        final CharSequence text, final int start, final int end )
+  {
+    if( myContentBuilder == null )
+      throw new IllegalStateException( "Annotation content is already built" );
+
+    //  Consecutive lines usually come from the same version, and the parser
+    //  gives the same strings for them, so the last values are checked by
+    //  identity before the table lookup.
+    final LineValues last = myValues.isEmpty() ? null : myValues.get( myValues.size() - 1 );
+    int index;
+    if( last != null && last.date == date && last.revisionSig == revision && last.version == version && last.author == author )
+    {
+      index = myValues.size() - 1;
+    }
+    else
+    {
+      LineValues values = new LineValues( date, revision, version, author );
+      final Integer known = myValueIndexes.get( values );
+      if( known == null )
+      {
+        index = myValues.size();
+        values = new LineValues( share( date ), share( revision ), share( version ), share( author ) );
+        myValues.add( values );
+        myValueIndexes.put( values, index );
+      }
+      else
+      {
+        index = known;
+      }
+    }
+
+    if( myLineCount == myLineValues.length )
+      myLineValues = Arrays.copyOf( myLineValues, myLineCount * 2 );
+    myLineValues[ myLineCount++ ] = index;
+
+    myContentBuilder.append( text, start, end );
+    myContentBuilder.append( '\n' );
+  }
+
+  private String share( final String value )
+  {
+    if( value == null )
+      return null;
+    final String known = myStrings.putIfAbsent( value, value );
+    return known == null ? value : known;
+  }
+
+  @Nullable
+  private synchronized LineValues getValues( final int lineNumber )
+  {
+    if( lineNumber < 0 || lineNumber >= myLineCount )
+      return null;
+    return myValues.get( myLineValues[ lineNumber ] );
+  }
+
+  @Nullable
+  private static Date parseDate( final String date )
+  {
+    if( date == null )
+      return null;
+
+    //  "%Sd" is printed in the locale of the server; try the ISO form first.
+    for( String format : DATE_FORMATS )
+    {
+      for( Locale locale : new Locale[]{ Locale.getDefault(), Locale.US } )
+      {
+        try
+        {
+          final SimpleDateFormat parser = new SimpleDateFormat( format, locale );
+          parser.setLenient( false );
+          return parser.parse( date );
+        }
+        catch( ParseException e )
+        {
+          //  Try the next one.
+        }
+      }
+    }
+    return null;
   }
 
   private abstract class CCAnnotationAspect extends LineAnnotationAspectAdapter {
@@ -0,0 +1,95 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.VcsException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the reservation and the comment of checkouts so that they are not
+ * asked with a separate "lsco" for every file. Files are read in bulk with
+ * {@link #prefetch}; an entry lives until the next checkout, checkin or
+ * undo of the element (or a change of its writable flag), which all call
+ * {@link #invalidate}. Checkouts are those of the current view, so the
+ * cache is kept per project.
+ */
+public class CCaseCheckoutInfoCache
+{
+  private final Map<String, CheckoutInfoMultipleProcessor.CheckoutInfo> myInfos = new ConcurrentHashMap<>();
+
+  public static CCaseCheckoutInfoCache getInstance( Project project )
+  {
+    return ServiceManager.getService( project, CCaseCheckoutInfoCache.class );
+  }
+
+  /**
+   * Reads the checkouts of all the files not known yet with batched "lsco"
+   * commands.
+   */
+  public void prefetch( Collection<String> paths )
+  {
+    final List<String> unknown = new ArrayList<>();
+    for( String path : paths )
+    {
+      if( !myInfos.containsKey( toKey( path ) ) )
+        unknown.add( path );
+    }
+    if( unknown.isEmpty() )
+      return;
+
+    final CheckoutInfoMultipleProcessor processor = new CheckoutInfoMultipleProcessor( unknown );
+    try
+    {
+      processor.execute();
+    }
+    catch( VcsException e )
+    {
+      TransparentVcs.LOG.info( "Can not list checkouts, files will be asked one by one", e );
+      return;
+    }
+
+    for( String path : unknown )
+    {
+      final CheckoutInfoMultipleProcessor.CheckoutInfo info = processor.getInfo( path );
+      if( info != null )
+        myInfos.put( toKey( path ), info );
+    }
+  }
+
+  @Nullable
+  public CheckoutInfoMultipleProcessor.CheckoutInfo getInfo( File file )
+  {
+    final String path = file.getAbsolutePath();
+    CheckoutInfoMultipleProcessor.CheckoutInfo info = myInfos.get( toKey( path ) );
+    if( info == null )
+    {
+      prefetch( Collections.singletonList( path ) );
+      info = myInfos.get( toKey( path ) );
+    }
+    return info;
+  }
+
+  public void invalidate( String path )
+  {
+    myInfos.remove( toKey( path ) );
+  }
+
+  public void invalidate( Collection<String> paths )
+  {
+    for( String path : paths )
+    {
+      invalidate( path );
+    }
+  }
+
+  private static String toKey( String path )
+  {
+    path = new File( path ).getAbsolutePath().replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+}
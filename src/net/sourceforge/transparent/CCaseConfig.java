@@ -26,6 +26,7 @@ public class CCaseConfig implements PersistentStateComponent<CCaseConfig> {
   public boolean isHistoryResticted = true;
   public boolean useIdenticalSwitch = true;
   public boolean synchActivitiesOnRefresh = true;
+  public boolean preAnnotateOpenedFiles = false;
   public String lastScr = "";
   public String scrTextFileName = "";
   public int historyRevisionsNumber = 4;
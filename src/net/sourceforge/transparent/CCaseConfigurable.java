@@ -25,6 +25,7 @@ public class CCaseConfigurable implements Configurable
   private JPanel myConfigPanel;
   private JCheckBox useIdenticalSwitch;
   private JCheckBox synchActivitiesOnRefresh;
+  private JCheckBox preAnnotateOpenedFiles;
 
   private final Project project;
   private CCaseSharedConfig mySharedConfig;
@@ -83,7 +84,8 @@ public class CCaseConfigurable implements Configurable
            || vcsConfig.isHistoryResticted != myRestrictHistory.isSelected()
            || vcsConfig.getHistoryRevisionsMargin() != getMargin()
            || vcsConfig.useIdenticalSwitch != useIdenticalSwitch.isSelected()
-           || vcsConfig.synchActivitiesOnRefresh != synchActivitiesOnRefresh.isSelected();  
+           || vcsConfig.synchActivitiesOnRefresh != synchActivitiesOnRefresh.isSelected()
+           || vcsConfig.preAnnotateOpenedFiles != preAnnotateOpenedFiles.isSelected();
   }
 
   private boolean hasScrTextChanged() {
@@ -102,6 +104,7 @@ public class CCaseConfigurable implements Configurable
     vcsConfig.setHistoryRevisionsMargin( getMargin() );
     vcsConfig.useIdenticalSwitch = useIdenticalSwitch.isSelected();
     vcsConfig.synchActivitiesOnRefresh = synchActivitiesOnRefresh.isSelected();
+    vcsConfig.preAnnotateOpenedFiles = preAnnotateOpenedFiles.isSelected();
 
     if (ucmFlagChanged) {
       TransparentVcs.getInstance(project).checkRootsForUCMMismatch();
@@ -124,6 +127,7 @@ public class CCaseConfigurable implements Configurable
     myUseUCMModel.setSelected( mySharedConfig.isUseUcmModel() );
     useIdenticalSwitch.setSelected( vcsConfig.useIdenticalSwitch );
     synchActivitiesOnRefresh.setSelected( vcsConfig.synchActivitiesOnRefresh );
+    preAnnotateOpenedFiles.setSelected( vcsConfig.preAnnotateOpenedFiles );
 
     myRestrictHistory.setSelected( vcsConfig.isHistoryResticted );
     historyText.setValue( vcsConfig.getHistoryRevisionsMargin() );
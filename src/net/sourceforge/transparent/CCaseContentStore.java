@@ -0,0 +1,718 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.DigestUtil;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent store of version contents.
+ *
+ * Contents of "element@@version" never change once the version is created,
+ * so whatever was fetched with "get -to" is kept on disk under the system
+ * directory, in a file named after the digest of the element OID and the
+ * version: an element removed and created anew at the same path gets a new
+ * OID, so the contents of the old one are never served for it. OIDs are
+ * resolved with "describe" and remembered in memory per path until the file
+ * at the path is created, deleted, moved or renamed; they are not kept
+ * across sessions, since an element may be replaced while the IDE is closed.
+ *
+ * The store is shared by diff, history, annotations and commit; least
+ * recently used contents are dropped when the store outgrows its budget,
+ * except for the files being read at the moment (see {@link #release}).
+ * Checked out versions and versions of elements whose OID can not be
+ * resolved are fetched every time.
+ *
+ * In dynamic views every version is visible through MVFS as the file
+ * "element@@version", such versions are read directly and are not stored.
+ */
+public class CCaseContentStore
+{
+  @NonNls private static final String STORE_DIR = "clearcase" + File.separator + "content";
+  @NonNls private static final String ANNOTATIONS_DIR = "clearcase" + File.separator + "annotations";
+  @NonNls private static final String GET_CMD = "get";
+  @NonNls private static final String DESCRIBE_CMD = "describe";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+  @NonNls private static final String OID_FORMAT = "%On";
+  @NonNls private static final String NAME_OID_FORMAT = "%n\t%On\n";
+  @NonNls private static final String TO_SWITCH = "-to";
+  @NonNls private static final String VERSION_DELIM = "@@";
+  @NonNls private static final String CHECKEDOUT_SIG = "CHECKEDOUT";
+  @NonNls private static final String TMP_PREFIX = "get";
+  @NonNls private static final String TMP_SUFFIX = ".tmp";
+  @NonNls private static final String WARNING_NO_GROUP_SIG = "Warning: Can not find a group named";
+
+  private static final long SIZE_BUDGET = 256L * 1024 * 1024;
+  private static final long ANNOTATIONS_SIZE_BUDGET = 64L * 1024 * 1024;
+  private static final int CMDLINE_MAX_LENGTH = 8000;
+  private static final int MAX_OIDS = 50000;
+  private static final long NOT_ELEMENT_LIFETIME = 60 * 1000;
+
+  private static final CCaseContentStore ourInstance = new CCaseContentStore( new File( PathManager.getSystemPath(), STORE_DIR ), SIZE_BUDGET );
+  private static final CCaseContentStore ourAnnotations = new CCaseContentStore( new File( PathManager.getSystemPath(), ANNOTATIONS_DIR ), ANNOTATIONS_SIZE_BUDGET );
+
+  private final File myDir;
+  private final long myBudget;
+  private final Map<String, Object> myLocks = new ConcurrentHashMap<>();
+
+  //  Element path (see toKey) -> OID, or NOT_ELEMENT with the time it was
+  //  learned, shared by both stores. Sorted, so all paths under a folder form
+  //  a single range of keys. Guarded by itself.
+  private static final NavigableMap<String, String> ourOids = new TreeMap<>();
+  private static final Map<String, Long> ourNotElements = new HashMap<>();
+  @NonNls private static final String NOT_ELEMENT = "";
+
+  //  File name -> size, least recently used first. Filled from the
+  //  directory on the first use. Guarded by this, as are the pins.
+  private LinkedHashMap<String, Long> myIndex;
+  private long myTotalSize;
+  private final Map<String, Integer> myPins = new HashMap<>();
+
+  CCaseContentStore( final File dir, final long budget )
+  {
+    myDir = dir;
+    myBudget = budget;
+  }
+
+  public static CCaseContentStore getInstance() {  return ourInstance;  }
+
+  /**
+   * Store of data computed for versions rather than their contents, namely
+   * annotations; it is filled with {@link #putData}.
+   */
+  public static CCaseContentStore getAnnotationStore() {  return ourAnnotations;  }
+
+  /**
+   * @return content of the version if it is already in the store. No
+   *         cleartool commands are issued once the OID of the element is
+   *         known, otherwise one "describe" asks for it (see {@link #getOid}).
+   */
+  @Nullable
+  public byte[] getCached( final String path, final String version )
+  {
+    if( !isImmutable( version ) )
+      return null;
+
+    return readStored( toFileName( getOid( path ), version ) );
+  }
+
+  /**
+   * Like {@link #getCached} but never issues cleartool commands, the OID of
+   * the element is to be known already.
+   */
+  @Nullable
+  public byte[] getKnownCached( final String path, final String version )
+  {
+    if( !isImmutable( version ) )
+      return null;
+
+    return readStored( toFileName( getKnownOid( toKey( path ) ), version ) );
+  }
+
+  @Nullable
+  private byte[] readStored( @Nullable final String name )
+  {
+    if( name == null )
+      return null;
+
+    ensureIndexLoaded();
+    synchronized( getLock( name ) )
+    {
+      return read( name );
+    }
+  }
+
+  /**
+   * Stores data computed for the version; nothing is stored for CHECKEDOUT
+   * versions. Read it back with {@link #getCached}.
+   */
+  public void putData( final String path, final String version, final byte[] data )
+  {
+    if( !isImmutable( version ) )
+      return;
+
+    final String name = toFileName( getOid( path ), version );
+    if( name == null )
+      return;
+
+    ensureIndexLoaded();
+    synchronized( getLock( name ) )
+    {
+      File tmpFile = null;
+      try
+      {
+        FileUtil.createDirectory( myDir );
+        tmpFile = FileUtil.createTempFile( myDir, TMP_PREFIX, TMP_SUFFIX, true, false );
+        FileUtil.writeToFile( tmpFile, data );
+        Files.move( tmpFile.toPath(), new File( myDir, name ).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        register( name, data.length );
+      }
+      catch( IOException e )
+      {
+        TransparentVcs.LOG.info( "Can not store data of " + path + VERSION_DELIM + version, e );
+        if( tmpFile != null )
+          FileUtil.delete( tmpFile );
+      }
+    }
+  }
+
+  /**
+   * Reads the version right from its extended path when the element is in a
+   * dynamic view, otherwise works as {@link #getContent(String, String)}.
+   */
+  @NotNull
+  public byte[] getContent( @Nullable final Project project, final String path, final String version ) throws VcsException
+  {
+    if( project != null && isInDynamicView( project, path ) )
+    {
+      final File versionFile = new File( toElementPath( path ) + VERSION_DELIM + stripDelim( version ) );
+      try
+      {
+        return readFile( versionFile );
+      }
+      catch( IOException e )
+      {
+        TransparentVcs.LOG.info( "Can not read " + versionFile.getPath() + " directly, issuing get", e );
+      }
+    }
+    return getContent( path, version );
+  }
+
+  /**
+   * Returns content of the version, fetching it with "get -to" if it is not
+   * in the store yet.
+   * @param path    path of the element
+   * @param version version extended name, with or without leading "@@"
+   */
+  @NotNull
+  public byte[] getContent( final String path, final String version ) throws VcsException
+  {
+    final String name = isImmutable( version ) ? toFileName( getOid( path ), version ) : null;
+    if( name == null )
+    {
+      final File tmpFile = fetch( path, version );
+      try
+      {
+        return FileUtil.loadFileBytes( tmpFile );
+      }
+      catch( IOException e )
+      {
+        throw new VcsException( e );
+      }
+      finally
+      {
+        FileUtil.delete( tmpFile );
+      }
+    }
+
+    ensureIndexLoaded();
+    synchronized( getLock( name ) )
+    {
+      byte[] content = read( name );
+      if( content == null )
+      {
+        try
+        {
+          content = FileUtil.loadFileBytes( fetchIntoStore( name, path, version ) );
+        }
+        catch( IOException e )
+        {
+          throw new VcsException( e );
+        }
+      }
+      return content;
+    }
+  }
+
+  /**
+   * Makes the version available as a local file without reading it: the
+   * version file itself in a dynamic view, the file of the store otherwise.
+   * The file is kept in the store until it is given to {@link #release}.
+   * @return null for versions which are not kept (CHECKEDOUT)
+   */
+  @Nullable
+  public File getContentFile( @Nullable final Project project, final String path, final String version ) throws VcsException
+  {
+    if( project != null && isInDynamicView( project, path ) )
+    {
+      final File versionFile = new File( toElementPath( path ) + VERSION_DELIM + stripDelim( version ) );
+      if( versionFile.isFile() )
+        return versionFile;
+    }
+    final String name = isImmutable( version ) ? toFileName( getOid( path ), version ) : null;
+    if( name == null )
+      return null;
+
+    ensureIndexLoaded();
+    synchronized( getLock( name ) )
+    {
+      //  Pinned before the fetch so that its own registration can not evict it.
+      final File file = new File( myDir, name );
+      pin( name );
+      try
+      {
+        if( file.exists() )
+        {
+          file.setLastModified( System.currentTimeMillis() );
+          touch( name );
+        }
+        else
+        {
+          fetchIntoStore( name, path, version );
+        }
+      }
+      catch( VcsException e )
+      {
+        unpin( name );
+        throw e;
+      }
+      return file;
+    }
+  }
+
+  /**
+   * Like {@link #getContentFile} but never issues cleartool commands, the
+   * OID of the element is to be known already (see {@link #resolveOids}).
+   * @return null if the version is neither visible in a dynamic view nor
+   *         kept in the store
+   */
+  @Nullable
+  public File getCachedContentFile( @Nullable final Project project, final String path, final String version )
+  {
+    if( project != null && isInDynamicView( project, path ) )
+    {
+      final File versionFile = new File( toElementPath( path ) + VERSION_DELIM + stripDelim( version ) );
+      if( versionFile.isFile() )
+        return versionFile;
+    }
+    final String name = isImmutable( version ) ? toFileName( getKnownOid( toKey( path ) ), version ) : null;
+    if( name == null )
+      return null;
+
+    ensureIndexLoaded();
+    synchronized( getLock( name ) )
+    {
+      final File file = new File( myDir, name );
+      pin( name );
+      if( !file.exists() )
+      {
+        unpin( name );
+        unregister( name );
+        return null;
+      }
+      file.setLastModified( System.currentTimeMillis() );
+      touch( name );
+      return file;
+    }
+  }
+
+  /**
+   * Lets the store drop the file given by {@link #getContentFile} or
+   * {@link #getCachedContentFile} once it is over the budget. Files which
+   * do not belong to the store (and null) are ignored.
+   */
+  public void release( @Nullable final File file )
+  {
+    if( file != null && FileUtil.filesEqual( file.getParentFile(), myDir ) )
+      unpin( file.getName() );
+  }
+
+  /**
+   * Resolves the OIDs of the elements which are not known yet with batched
+   * "describe" commands, so that {@link #getCachedContentFile} can find
+   * their versions.
+   */
+  public static void resolveOids( final Collection<String> paths )
+  {
+    final List<String> unknown = new ArrayList<>();
+    synchronized( ourOids )
+    {
+      for( String path : paths )
+      {
+        if( !isKnown( toKey( path ) ) )
+          unknown.add( toElementPath( path ) + VERSION_DELIM );
+      }
+    }
+
+    int currIndex = 0;
+    while( currIndex < unknown.size() )
+    {
+      final List<String> options = new ArrayList<>( Arrays.asList( DESCRIBE_CMD, FMT_SWITCH, NAME_OID_FORMAT ) );
+      int cmdLineLen = DESCRIBE_CMD.length() + FMT_SWITCH.length() + NAME_OID_FORMAT.length() + 3;
+      while( currIndex < unknown.size() && (options.size() == 3 || cmdLineLen < CMDLINE_MAX_LENGTH) )
+      {
+        final String path = unknown.get( currIndex++ );
+        options.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+
+      final String out = TransparentVcs.cleartoolWithOutput( ArrayUtil.toStringArray( options ) );
+      final Map<String, String> resolved = new HashMap<>();
+      for( String line : LineTokenizer.tokenize( out, false ) )
+      {
+        final int tabIndex = line.indexOf( '\t' );
+        if( tabIndex > 0 && tabIndex < line.length() - 1 )
+          resolved.put( toKey( line.substring( 0, tabIndex ) ), line.substring( tabIndex + 1 ).trim() );
+      }
+
+      //  Paths which are not printed are not elements, unless the server
+      //  did not answer at all.
+      final boolean complete = !TransparentVcs.isServerDownMessage( out );
+      for( String path : options.subList( 3, options.size() ) )
+      {
+        final String key = toKey( path );
+        final String oid = resolved.get( key );
+        if( oid != null || complete )
+          remember( key, oid );
+      }
+    }
+  }
+
+  /**
+   * Forgets the OIDs of the element at the path and of everything under
+   * it, e.g. because a new element may appear there.
+   */
+  public static void forgetElement( final String path )
+  {
+    final String key = toKey( path );
+    synchronized( ourOids )
+    {
+      ourOids.remove( key );
+      ourNotElements.remove( key );
+
+      //  '0' follows '/', so the range holds exactly the paths under the folder.
+      final Map<String, String> subtree = ourOids.subMap( key + '/', key + '0' );
+      ourNotElements.keySet().removeAll( subtree.keySet() );
+      subtree.clear();
+    }
+  }
+
+  /**
+   * Asks cleartool once per path per session (and once a minute for paths
+   * which are not elements).
+   * @return OID of the element; null if it is not an element
+   */
+  @Nullable
+  public static String getOid( final String path )
+  {
+    final String key = toKey( path );
+    synchronized( ourOids )
+    {
+      if( isKnown( key ) )
+        return getKnownOid( key );
+    }
+
+    final Runner runner = new Runner();
+    final String out = TransparentVcs.cleartoolWithOutput( runner, DESCRIBE_CMD, FMT_SWITCH, OID_FORMAT, toElementPath( path ) + VERSION_DELIM );
+    String oid = out == null ? "" : out.trim();
+    if( !runner.isSuccessfull() || oid.isEmpty() || oid.contains( " " ) || oid.contains( "\n" ) )
+    {
+      if( out != null && TransparentVcs.isServerDownMessage( out ) )
+        return null;
+      oid = null;
+    }
+    remember( key, oid );
+    return oid;
+  }
+
+  /**
+   * To be called under the lock of the OIDs.
+   */
+  private static boolean isKnown( final String key )
+  {
+    final String oid = ourOids.get( key );
+    if( oid == null )
+      return false;
+    if( !oid.isEmpty() )
+      return true;
+
+    final Long learned = ourNotElements.get( key );
+    if( learned != null && System.currentTimeMillis() - learned < NOT_ELEMENT_LIFETIME )
+      return true;
+    ourOids.remove( key );
+    ourNotElements.remove( key );
+    return false;
+  }
+
+  @Nullable
+  private static String getKnownOid( final String key )
+  {
+    synchronized( ourOids )
+    {
+      final String oid = ourOids.get( key );
+      return oid == null || oid.isEmpty() ? null : oid;
+    }
+  }
+
+  /**
+   * @param oid null if the path is not an element
+   */
+  private static void remember( final String key, @Nullable final String oid )
+  {
+    synchronized( ourOids )
+    {
+      //  Rebuilding is one "describe" per element, so there is no point in
+      //  ordering the entries by use: the map just starts anew when full.
+      if( ourOids.size() >= MAX_OIDS && !ourOids.containsKey( key ) )
+      {
+        ourOids.clear();
+        ourNotElements.clear();
+      }
+      if( oid == null )
+      {
+        ourOids.put( key, NOT_ELEMENT );
+        ourNotElements.put( key, System.currentTimeMillis() );
+      }
+      else
+      {
+        ourOids.put( key, oid );
+        ourNotElements.remove( key );
+      }
+    }
+  }
+
+  /**
+   * Fetches the version and moves it into its place in the store; to be
+   * called under the lock of the name.
+   */
+  private File fetchIntoStore( final String name, final String path, final String version ) throws VcsException
+  {
+    final File tmpFile = fetch( path, version );
+    final File file = new File( myDir, name );
+    try
+    {
+      Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      register( name, file.length() );
+      return file;
+    }
+    catch( IOException e )
+    {
+      FileUtil.delete( tmpFile );
+      throw new VcsException( e );
+    }
+  }
+
+  /**
+   * Runs "get -to" into a fresh file of the store directory, so the result
+   * can be moved into its place atomically.
+   */
+  private File fetch( final String path, final String version ) throws VcsException
+  {
+    final File tmpFile;
+    try
+    {
+      FileUtil.createDirectory( myDir );
+      tmpFile = FileUtil.createTempFile( myDir, TMP_PREFIX, TMP_SUFFIX, false, false );
+    }
+    catch( IOException e )
+    {
+      throw new VcsException( e );
+    }
+
+    final String out = TransparentVcs.cleartoolWithOutput( GET_CMD, TO_SWITCH, tmpFile.getPath(),
+                                                           toElementPath( path ) + VERSION_DELIM + stripDelim( version ) );
+
+    //  We expect that properly finished command produce no (error or
+    //  warning) output. The only messages allowed are the warnings from
+    //  other subsystems which are not related to the "ct get" command per se.
+    if( (out != null && out.length() > 0 && !isKnownMessage( out )) || !tmpFile.exists() )
+    {
+      FileUtil.delete( tmpFile );
+      throw new VcsException( String.valueOf( out ) );
+    }
+    return tmpFile;
+  }
+
+  private static boolean isInDynamicView( final Project project, final String path )
+  {
+    final CCaseViewsManager.ViewInfo info = CCaseViewsManager.getInstance( project ).getViewByFile( VcsUtil.getFilePath( toElementPath( path ) ) );
+    return info != null && !info.isSnapshot;
+  }
+
+  private static byte[] readFile( final File file ) throws IOException
+  {
+    try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+    {
+      final long size = channel.size();
+      if( size > Integer.MAX_VALUE )
+        throw new IOException( "File is too large: " + file.getPath() );
+
+      final ByteBuffer buffer = ByteBuffer.allocate( (int)size );
+      while( buffer.hasRemaining() )
+      {
+        if( channel.read( buffer ) == -1 )
+          throw new IOException( "Unexpected end of " + file.getPath() );
+      }
+      return buffer.array();
+    }
+  }
+
+  @Nullable
+  private byte[] read( final String name )
+  {
+    final File file = new File( myDir, name );
+    pin( name );
+    try
+    {
+      if( !file.exists() )
+      {
+        unregister( name );
+        return null;
+      }
+      final byte[] content = FileUtil.loadFileBytes( file );
+      //  Keeps the order of use across sessions.
+      file.setLastModified( System.currentTimeMillis() );
+      touch( name );
+      return content;
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.info( "Can not read stored content " + file.getPath(), e );
+      FileUtil.delete( file );
+      unregister( name );
+      return null;
+    }
+    finally
+    {
+      unpin( name );
+    }
+  }
+
+  private synchronized void touch( final String name )
+  {
+    final Long size = myIndex.remove( name );
+    if( size != null )
+      myIndex.put( name, size );
+  }
+
+  private synchronized void unregister( final String name )
+  {
+    final Long size = myIndex.remove( name );
+    if( size != null )
+      myTotalSize -= size;
+  }
+
+  private synchronized void pin( final String name )
+  {
+    myPins.merge( name, 1, Integer::sum );
+  }
+
+  private synchronized void unpin( final String name )
+  {
+    myPins.computeIfPresent( name, ( k, count ) -> count > 1 ? count - 1 : null );
+  }
+
+  private synchronized void register( final String name, final long size )
+  {
+    final Long oldSize = myIndex.put( name, size );
+    myTotalSize += size - (oldSize == null ? 0 : oldSize);
+
+    final Iterator<Map.Entry<String, Long>> it = myIndex.entrySet().iterator();
+    while( myTotalSize > myBudget && it.hasNext() )
+    {
+      final Map.Entry<String, Long> eldest = it.next();
+      if( eldest.getKey().equals( name ) || myPins.containsKey( eldest.getKey() ) )
+        continue;
+      it.remove();
+      myTotalSize -= eldest.getValue();
+      FileUtil.delete( new File( myDir, eldest.getKey() ) );
+    }
+  }
+
+  /**
+   * Reads the directory once, before any "get" of this session is started.
+   */
+  private synchronized void ensureIndexLoaded()
+  {
+    if( myIndex != null )
+      return;
+
+    myIndex = new LinkedHashMap<>();
+    final File[] files = myDir.listFiles();
+    if( files == null )
+      return;
+
+    Arrays.sort( files, Comparator.comparingLong( File::lastModified ) );
+    for( File file : files )
+    {
+      if( file.getName().endsWith( TMP_SUFFIX ) )
+      {
+        //  Left by a session which was killed in the middle of "get".
+        FileUtil.delete( file );
+        continue;
+      }
+      myIndex.put( file.getName(), file.length() );
+      myTotalSize += file.length();
+    }
+  }
+
+  private Object getLock( final String name )
+  {
+    return myLocks.computeIfAbsent( name, k -> new Object() );
+  }
+
+  /**
+   * @return true if contents of the version never change, i.e. it may be
+   *         kept in a store
+   */
+  public static boolean isImmutable( @Nullable final String version )
+  {
+    return version != null && !version.contains( CHECKEDOUT_SIG );
+  }
+
+  private static boolean isKnownMessage( final String message )
+  {
+    return message.contains( WARNING_NO_GROUP_SIG );
+  }
+
+  private static String stripDelim( final String version )
+  {
+    return version.startsWith( VERSION_DELIM ) ? version.substring( VERSION_DELIM.length() ) : version;
+  }
+
+  /**
+   * History of hijacked files is asked for "file@@", such paths come here too.
+   */
+  private static String toElementPath( final String path )
+  {
+    final String canonical = VcsUtil.getCanonicalLocalPath( path );
+    return canonical.endsWith( VERSION_DELIM ) ? canonical.substring( 0, canonical.length() - VERSION_DELIM.length() ) : canonical;
+  }
+
+  private static String toKey( final String path )
+  {
+    final String key = toElementPath( path ).replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? key : key.toLowerCase();
+  }
+
+  @Nullable
+  private static String toFileName( @Nullable final String oid, final String version )
+  {
+    if( oid == null )
+      return null;
+    String key = oid + VERSION_DELIM + stripDelim( version ).replace( '\\', '/' );
+    if( !SystemInfo.isFileSystemCaseSensitive )
+      key = key.toLowerCase();
+    return StringUtil.toHexString( DigestUtil.sha1().digest( key.getBytes( StandardCharsets.UTF_8 ) ) );
+  }
+}
@@ -13,8 +13,9 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.WaitForProgressToShow;
 import com.intellij.util.io.ReadOnlyAttributeUtil;
-import com.intellij.vcsUtil.FilesProgress;
+import gnu.trove.THashSet;
 import net.sourceforge.transparent.actions.CheckoutDialog;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
@@ -48,26 +49,45 @@ public class CCaseEditFileProvider implements EditFileProvider
     final String comment = getEditComment(files, statusHelper[0]);
     if (comment == null) return;  // was cancelled
     ProgressManager.getInstance().runProcessWithProgressSynchronously(() -> {
+      //  Hijacked and renamed files are processed one by one, all others are
+      //  checked out together.
+      final List<VirtualFile> toCheckout = new ArrayList<>();
+      final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
       int cnt = 0;
       for( VirtualFile file : files )
       {
         final boolean ignoredFile = mgr.isIgnoredFile(file);
-        final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        ++ cnt;
+        if (ignoredFile) continue;
+        if (statusHelper[0].isPlainCheckout(file)) {
+          toCheckout.add(file);
+          continue;
+        }
         if (indicator != null) {
           indicator.checkCanceled();
-          indicator.setText2((ignoredFile ? "Ignored: " : "Checking out: ") + getFileDescriptionForProgress(file));
+          indicator.setText2("Checking out: " + getFileDescriptionForProgress(file));
           indicator.setFraction((double) cnt/files.length);
         }
-        ++ cnt;
-        if(! ignoredFile) {
-          try {
-            statusHelper[0].checkOutOrHijackFile(file, errors, comment);
-          }
-          catch (VcsException e) {
-            return;
-            // exit, exception already kept
-          }
+        try {
+          statusHelper[0].checkOutOrHijackFile(file, errors, comment);
         }
+        catch (VcsException e) {
+          return;
+          // exit, exception already kept
+        }
+      }
+
+      if (toCheckout.isEmpty()) return;
+      if (indicator != null) {
+        indicator.checkCanceled();
+        indicator.setIndeterminate(true);
+        indicator.setText2("Checking out " + toCheckout.size() + " files");
+      }
+      try {
+        host.checkoutFiles(toCheckout, comment, errors);
+      }
+      catch (VcsException e) {
+        errors.add(e);
       }
     }, "Checkout files", true, host.getProject());
     if( errors.size() > 0 )
@@ -124,31 +144,52 @@ public class CCaseEditFileProvider implements EditFileProvider
     }));
   }
 
+  /**
+   * Files which are not elements (or whose old names, for renamed files, are
+   * not) are to be hijacked; their statuses are asked with one batched "ls".
+   */
   private CurrentStatusHelper preProcessFiles(final VirtualFile[] files) {
     final CurrentStatusHelper csh = new CurrentStatusHelper(host);
     final ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
     if (pi != null) {
-      pi.setIndeterminate(false);
+      pi.setIndeterminate(true);
     }
-    final FilesProgress filesProgress = new FilesProgress(files.length, "");
+    final Map<VirtualFile, String> refNames = new LinkedHashMap<>();
     for (VirtualFile file : files) {
-      filesProgress.updateIndicator(file);
       final String oldName = host.discoverOldName(file.getPath());
       if (oldName != null) {
         csh.addRenamed(file, oldName);
-        if (host.getConfig().isOffline()) {
-          csh.shouldHijack(file);
-          continue;
-        }
-        final Status oldStatus = host.getStatusSafely(new File(oldName));
-        if (Status.NOT_AN_ELEMENT.equals(oldStatus)) {
-          csh.shouldHijack(file);
-        }
-      } else {
-        if (shouldHijackFile(file)) {
-          csh.shouldHijack(file);
+      }
+      refNames.put(file, oldName != null ? oldName : file.getPath());
+    }
+
+    if (host.getConfig().isOffline()) {
+      for (VirtualFile file : files) {
+        csh.unversioned(file);
+      }
+      return csh;
+    }
+
+    final StatusMultipleProcessor processor = new StatusMultipleProcessor(new ArrayList<>(refNames.values()));
+    try {
+      processor.execute();
+    }
+    catch (ClearCaseException e) {
+      //  Output we can not parse, ask file by file.
+      TransparentVcs.LOG.info(e);
+      for (Map.Entry<VirtualFile, String> entry : refNames.entrySet()) {
+        if (Status.NOT_AN_ELEMENT.equals(host.getStatusSafely(new File(entry.getValue())))) {
+          csh.unversioned(entry.getKey());
         }
       }
+      return csh;
+    }
+
+    final Set<String> unversioned = new THashSet<>(processor.getUnversioned(), FileUtil.PATH_HASHING_STRATEGY);
+    for (Map.Entry<VirtualFile, String> entry : refNames.entrySet()) {
+      if (unversioned.contains(FileUtil.toSystemIndependentName(entry.getValue()))) {
+        csh.unversioned(entry.getKey());
+      }
     }
     return csh;
   }
@@ -180,6 +221,11 @@ public class CCaseEditFileProvider implements EditFileProvider
       return myShouldHijackFiles.contains(file);
     }
 
+    public boolean isPlainCheckout(final VirtualFile file) {
+      final String oldName = myRenamedMap.get(file);
+      return ! shouldHijack(file) && (oldName == null || file.getPath().equals(FileUtil.toSystemIndependentName(oldName)));
+    }
+
     public void checkOutOrHijackFile(VirtualFile file, List<VcsException> errors, String comment) throws VcsException {
       boolean toHijack = shouldHijack(file);
       try {
@@ -202,10 +248,4 @@ public class CCaseEditFileProvider implements EditFileProvider
       }
     }
   }
-
-  private boolean shouldHijackFile( VirtualFile file )
-  {
-    return  host.getConfig().isOffline() || 
-           (host.getStatus( file ) == Status.NOT_AN_ELEMENT);
-  }
 }
@@ -0,0 +1,169 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.*;
+
+/**
+ * Moves the last versions of many files from one activity to another, the
+ * batch form of {@link TransparentVcs#changeActivityForLastVersion}. Files are
+ * grouped by their VCS root and the pair of activities; for every group the
+ * versions are resolved with one "describe", the destination activity is
+ * created (once) if it does not exist, and all versions are moved with one
+ * "chactivity" (split only when the command line gets too long).
+ */
+public class ChangeActivityMultipleProcessor
+{
+  @NonNls private static final String DESCRIBE_COMMAND = "describe";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+  @NonNls private static final String FORMAT_SIG = "%Xn\n";
+  @NonNls private static final String LIST_ACTIVITY_COMMAND = "lsact";
+  @NonNls private static final String MAKE_ACTIVITY_COMMAND = "mkact";
+  @NonNls private static final String CHANGE_ACTIVITY_COMMAND = "chactivity";
+  @NonNls private static final String VERSION_DELIM = "@@";
+
+  private static final int CMDLINE_MAX_LENGTH = 8000;
+
+  private final Project myProject;
+  private final Map<List<String>, List<FilePath>> myGroups = new LinkedHashMap<>();
+
+  public ChangeActivityMultipleProcessor( Project project )
+  {
+    myProject = project;
+  }
+
+  public void add( FilePath file, String srcActivity, String dstActivity )
+  {
+    final VirtualFile root = VcsUtil.getVcsRootFor( myProject, file );
+    if( root == null )
+      return;
+    myGroups.computeIfAbsent( Arrays.asList( root.getPath(), srcActivity, dstActivity ), k -> new ArrayList<>() ).add( file );
+  }
+
+  public void execute( List<VcsException> errors )
+  {
+    final CCaseViewsManager viewsMgr = CCaseViewsManager.getInstance( myProject );
+    final Map<List<String>, Boolean> activitiesReady = new HashMap<>();
+    for( Map.Entry<List<String>, List<FilePath>> group : myGroups.entrySet() )
+    {
+      final String rootPath = group.getKey().get( 0 );
+      final String srcActivity = viewsMgr.getActivityIdName( group.getKey().get( 1 ) );
+      final String dstActivity = group.getKey().get( 2 );
+      final String dstActivityNorm = viewsMgr.getActivityIdName( dstActivity );
+
+      final List<String> versions = describeVersions( rootPath, group.getValue(), errors );
+      if( versions.isEmpty() )
+        continue;
+
+      final List<String> activityKey = Arrays.asList( rootPath, dstActivityNorm );
+      Boolean ready = activitiesReady.get( activityKey );
+      if( ready == null )
+      {
+        ready = ensureActivity( rootPath, dstActivity, dstActivityNorm, errors );
+        activitiesReady.put( activityKey, ready );
+      }
+      if( !ready )
+        continue;
+
+      int currIndex = 0;
+      while( currIndex < versions.size() )
+      {
+        final List<String> options = new ArrayList<>( Arrays.asList( TransparentVcs.CLEARTOOL_CMD, CHANGE_ACTIVITY_COMMAND, "-nc",
+                                                                     "-fcset", srcActivity, "-tcset", dstActivityNorm ) );
+        int cmdLineLen = srcActivity.length() + dstActivityNorm.length() + 40;
+        final int batchStart = options.size();
+        while( currIndex < versions.size() && (options.size() == batchStart || cmdLineLen < CMDLINE_MAX_LENGTH) )
+        {
+          final String version = versions.get( currIndex++ );
+          options.add( CommandLineClearCase.quote( version ) );
+          cmdLineLen += version.length() + 3;
+        }
+
+        final Runner runner = newRunner( rootPath );
+        runner.run( ArrayUtil.toStringArray( options ), true );
+        if( !runner.isSuccessfull() )
+          errors.add( new VcsException( runner.getOutput() ) );
+      }
+    }
+    myGroups.clear();
+  }
+
+  /**
+   * @return extended names of the versions selected by the view, in the
+   *         order of the files
+   */
+  private static List<String> describeVersions( final String rootPath, final List<FilePath> files, final List<VcsException> errors )
+  {
+    final Map<String, String> versionsByKey = new HashMap<>();
+    int currIndex = 0;
+    while( currIndex < files.size() )
+    {
+      final List<String> options = new ArrayList<>( Arrays.asList( DESCRIBE_COMMAND, FMT_SWITCH, FORMAT_SIG ) );
+      int cmdLineLen = DESCRIBE_COMMAND.length() + FMT_SWITCH.length() + FORMAT_SIG.length() + 3;
+      while( currIndex < files.size() && (options.size() == 3 || cmdLineLen < CMDLINE_MAX_LENGTH) )
+      {
+        final String path = files.get( currIndex++ ).getPath();
+        options.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+
+      final String out = TransparentVcs.cleartoolOnLocalPathWithOutput( rootPath, ArrayUtil.toStringArray( options ) );
+      for( String line : LineTokenizer.tokenize( out, false ) )
+      {
+        final int delimIndex = line.indexOf( VERSION_DELIM );
+        if( delimIndex != -1 )
+          versionsByKey.put( toKey( line.substring( 0, delimIndex ) ), line.trim() );
+      }
+    }
+
+    final List<String> versions = new ArrayList<>();
+    for( FilePath file : files )
+    {
+      final String version = versionsByKey.get( toKey( file.getPath() ) );
+      if( version != null )
+        versions.add( version );
+      else
+        errors.add( new VcsException( "Did not manage to retrieve the element version for Activity movement: " + file.getPath() ) );
+    }
+    return versions;
+  }
+
+  private static boolean ensureActivity( final String rootPath, final String activity, final String activityNorm,
+                                         final List<VcsException> errors )
+  {
+    final Runner runner = newRunner( rootPath );
+    runner.run( new String[] { TransparentVcs.CLEARTOOL_CMD, LIST_ACTIVITY_COMMAND, "-short", activityNorm }, true );
+    if( runner.isSuccessfull() )
+      return true;
+
+    runner.run( new String[] { TransparentVcs.CLEARTOOL_CMD, MAKE_ACTIVITY_COMMAND, "-nc", "-f", "-headline", "\"" + activity + "\"", activityNorm }, true );
+    if( runner.isSuccessfull() )
+      return true;
+
+    @NonNls String msg = "Error occured while creating an activity (possibly illegal activity name). File(s) is checked to the default activity." +
+                         "Error description: " + runner.getOutput();
+    errors.add( new VcsException( msg ) );
+    return false;
+  }
+
+  private static Runner newRunner( final String rootPath )
+  {
+    final Runner runner = new Runner();
+    runner.workingDir = rootPath;
+    return runner;
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+}
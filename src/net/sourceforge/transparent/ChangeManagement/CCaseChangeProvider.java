@@ -77,6 +77,7 @@ public class CCaseChangeProvider implements ChangeProvider {
   private final HashSet<String> filesWritable = new HashSet<>();
   private final HashSet<String> filesNew = new HashSet<>();
   private final HashSet<String> filesChanged = new HashSet<>();
+  private final HashSet<String> filesUnmodified = new HashSet<>();
   private final HashSet<String> filesHijacked = new HashSet<>();
   private final HashSet<String> filesIgnored = new HashSet<>();
   private final HashSet<String> filesMerge = new HashSet<>();
@@ -156,6 +157,10 @@ public class CCaseChangeProvider implements ChangeProvider {
         setActivityInfoOnChangedFiles();
       }
 
+      if(! config.isOffline() ) {
+        separateUnmodifiedCheckouts();
+      }
+
       addLocallyDeletedFiles(builder);
       addAddedFiles( builder );
       addChangedFiles( builder );
@@ -473,6 +478,27 @@ public class CCaseChangeProvider implements ChangeProvider {
     }
   }
 
+  /**
+   * Checked out files whose content is identical to their predecessor get
+   * their own status, so that such checkouts are told from modifications
+   * and can be undone in bulk. Renamed files are changes anyway.
+   */
+  private void separateUnmodifiedCheckouts()
+  {
+    List<String> candidates = new ArrayList<>();
+    for( String fileName : filesChanged )
+    {
+      if( host.discoverOldName( fileName ).equals( fileName ) && new File( fileName ).isFile() )
+        candidates.add( fileName );
+    }
+    if( candidates.isEmpty() )
+      return;
+
+    Set<String> unmodified = CCaseCheckoutContentTracker.getInstance( project ).findUnmodified( candidates );
+    filesChanged.removeAll( unmodified );
+    filesUnmodified.addAll( unmodified );
+  }
+
   private void restoreStatusesFromCached()
   {
     for( String fileName : filesWritable )
@@ -615,6 +641,11 @@ public class CCaseChangeProvider implements ChangeProvider {
       add2ChangeList( builder, FileStatus.HIJACKED, fileName, validRefName );
     }
 
+    for( String fileName : filesUnmodified )
+    {
+      add2ChangeList( builder, CCaseCheckoutContentTracker.UNMODIFIED_CHECKOUT, fileName, fileName );
+    }
+
     for( String folderName : host.renamedFolders.keySet() )
     {
       String oldFolderName = host.renamedFolders.get( folderName );
@@ -714,6 +745,7 @@ public class CCaseChangeProvider implements ChangeProvider {
     filesWritable.clear();
     filesNew.clear();
     filesChanged.clear();
+    filesUnmodified.clear();
     filesHijacked.clear();
     filesIgnored.clear();
     filesMerge.clear();
@@ -0,0 +1,197 @@
+package net.sourceforge.transparent.ChangeManagement;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.FileStatusFactory;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.ui.JBColor;
+import com.intellij.util.io.DigestUtil;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells checked out files which are still identical to the version they
+ * were checked out from, so that such checkouts are shown apart from real
+ * modifications.
+ *
+ * The predecessor of a checkout is resolved once (with a batched "describe")
+ * and the digest of its content is taken once, and only if the content is
+ * readable locally - from a dynamic view or the content store; until then
+ * the checkout is considered modified. The digest of the working file is
+ * taken again only when its timestamp or length changes. Everything known
+ * about a file is dropped when its checkout ends (it becomes read-only).
+ * Files are read through streams and never memory mapped, a mapped file
+ * can not be saved, checked in or removed on Windows.
+ */
+public class CCaseCheckoutContentTracker
+{
+  @NonNls private static final String UNMODIFIED_CHECKOUT_ID = "CCASE_UNMODIFIED_CHECKOUT";
+  @NonNls private static final String UNMODIFIED_CHECKOUT_TEXT = "Checked out, unmodified";
+
+  public static final FileStatus UNMODIFIED_CHECKOUT =
+    FileStatusFactory.getInstance().createFileStatus( UNMODIFIED_CHECKOUT_ID, UNMODIFIED_CHECKOUT_TEXT, JBColor.GRAY );
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Project myProject;
+  private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+
+  private static class Entry
+  {
+    private final String predecessor;
+    private byte[] baseDigest;
+    private long baseLength;
+    private long stamp;
+    private long length = -1;
+    private byte[] digest;
+
+    Entry( @Nullable final String predecessor )
+    {
+      this.predecessor = predecessor;
+    }
+  }
+
+  public CCaseCheckoutContentTracker( Project project )
+  {
+    myProject = project;
+  }
+
+  public static CCaseCheckoutContentTracker getInstance( Project project )
+  {
+    return ServiceManager.getService( project, CCaseCheckoutContentTracker.class );
+  }
+
+  /**
+   * @param paths checked out files
+   * @return the files whose content is known to be identical to their
+   *         predecessor
+   */
+  public Set<String> findUnmodified( Collection<String> paths )
+  {
+    final List<String> unresolved = new ArrayList<>();
+    for( String path : paths )
+    {
+      if( !myEntries.containsKey( toKey( path ) ) )
+        unresolved.add( path );
+    }
+    resolvePredecessors( unresolved );
+
+    final Set<String> unmodified = new HashSet<>();
+    for( String path : paths )
+    {
+      final Entry entry = myEntries.get( toKey( path ) );
+      if( entry != null && isUnmodified( path, entry ) )
+        unmodified.add( path );
+    }
+    return unmodified;
+  }
+
+  public void invalidate( String path )
+  {
+    myEntries.remove( toKey( path ) );
+  }
+
+  private void resolvePredecessors( final List<String> paths )
+  {
+    if( paths.isEmpty() )
+      return;
+
+    final PredecessorMultipleProcessor processor = new PredecessorMultipleProcessor( paths );
+    try
+    {
+      processor.execute();
+    }
+    catch( VcsException e )
+    {
+      TransparentVcs.LOG.info( "Can not resolve predecessors of checked out files", e );
+      return;
+    }
+
+    for( String path : paths )
+    {
+      myEntries.put( toKey( path ), new Entry( processor.getPredecessor( path ) ) );
+    }
+    CCaseContentStore.resolveOids( paths );
+  }
+
+  private boolean isUnmodified( final String path, final Entry entry )
+  {
+    if( entry.predecessor == null )
+      return false;
+
+    synchronized( entry )
+    {
+      if( entry.baseDigest == null )
+      {
+        final CCaseContentStore store = CCaseContentStore.getInstance();
+        final File baseFile = store.getCachedContentFile( myProject, path, entry.predecessor );
+        if( baseFile == null )
+          return false;
+        try
+        {
+          entry.baseLength = baseFile.length();
+          entry.baseDigest = digest( baseFile );
+        }
+        finally
+        {
+          store.release( baseFile );
+        }
+        if( entry.baseDigest == null )
+          return false;
+      }
+
+      final File file = new File( path );
+      final long stamp = file.lastModified();
+      final long length = file.length();
+      if( length != entry.baseLength )
+        return false;
+
+      if( entry.digest == null || stamp != entry.stamp || length != entry.length )
+      {
+        entry.digest = digest( file );
+        entry.stamp = stamp;
+        entry.length = length;
+      }
+      return entry.digest != null && MessageDigest.isEqual( entry.digest, entry.baseDigest );
+    }
+  }
+
+  @Nullable
+  private static byte[] digest( final File file )
+  {
+    final MessageDigest digest = DigestUtil.sha1();
+    final byte[] buffer = new byte[ BUFFER_SIZE ];
+    try( InputStream in = new FileInputStream( file ) )
+    {
+      int read;
+      while( (read = in.read( buffer )) != -1 )
+      {
+        digest.update( buffer, 0, read );
+      }
+      return digest.digest();
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.debug( "Can not read " + file.getPath(), e );
+      return null;
+    }
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+}
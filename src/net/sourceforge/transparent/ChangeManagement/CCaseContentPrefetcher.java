@@ -0,0 +1,204 @@
+package net.sourceforge.transparent.ChangeManagement;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.changes.LocalChangeList;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Fetches base revisions of changes into the content store in the background
+ * as soon as a change list is shown (e.g. the commit dialog is opened), so
+ * that diffs open without waiting for cleartool.
+ *
+ * Revisions are taken from a queue by at most {@link CleartoolExecutor#BACKGROUND_SESSIONS}
+ * workers of the background pool, so the sessions of the cleartool executor
+ * stay free for commits and checkouts. A revision is queued once and is not
+ * tried again once it failed to load. A file opened in the editor is moved
+ * to the head of the queue; a revision asked for directly is loaded by the
+ * asking thread at once, and the changes following it in its change list
+ * go to the head of the queue.
+ */
+public class CCaseContentPrefetcher implements Disposable
+{
+  private final Project myProject;
+  private final TransparentVcs host;
+
+  //  Guarded by the queue, as are the failed revisions and the number of
+  //  running workers.
+  private final Deque<CCaseContentRevision> myQueue = new ArrayDeque<>();
+  private final Set<CCaseContentRevision> myQueued = new HashSet<>();
+  private final Set<CCaseContentRevision> myFailed = ContainerUtil.createWeakSet();
+  private int myWorkers;
+  private volatile boolean myDisposed;
+
+  public CCaseContentPrefetcher( Project project )
+  {
+    myProject = project;
+    host = TransparentVcs.getInstance( project );
+    project.getMessageBus().connect( this ).subscribe( FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerListener()
+    {
+      @Override
+      public void fileOpened( @NotNull FileEditorManager source, @NotNull VirtualFile file )
+      {
+        prioritize( file.getPath() );
+      }
+    });
+  }
+
+  public static CCaseContentPrefetcher getInstance( Project project )
+  {
+    return ServiceManager.getService( project, CCaseContentPrefetcher.class );
+  }
+
+  public void prefetch( Collection<Change> changes )
+  {
+    enqueue( getBaseRevisions( changes ), false );
+  }
+
+  /**
+   * Queues the other changes of the list the file belongs to: once a diff of
+   * the list is looked at, the rest usually follows, in the order of the
+   * list. The revision of the file itself is left to the caller.
+   */
+  public void prefetchChangeListOf( FilePath path )
+  {
+    final ChangeListManager manager = ChangeListManager.getInstance( myProject );
+    final Change change = manager.getChange( path );
+    final LocalChangeList list = change == null ? null : manager.getChangeList( change );
+    if( list == null )
+      return;
+
+    final List<Change> changes = new ArrayList<>( list.getChanges() );
+    final int index = changes.indexOf( change );
+    Collections.rotate( changes, -index - 1 );
+    changes.remove( change );
+    enqueue( getBaseRevisions( changes ), true );
+
+    synchronized( myQueue )
+    {
+      final ContentRevision revision = change.getBeforeRevision();
+      if( myQueued.remove( revision ) )
+        myQueue.remove( revision );
+    }
+  }
+
+  /**
+   * Moves the revision of the file to the head of the queue.
+   */
+  public void prioritize( String path )
+  {
+    synchronized( myQueue )
+    {
+      for( CCaseContentRevision revision : myQueue )
+      {
+        if( FileUtil.pathsEqual( revision.getFile().getPath(), path ) )
+        {
+          myQueue.remove( revision );
+          myQueue.addFirst( revision );
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void dispose()
+  {
+    myDisposed = true;
+    synchronized( myQueue )
+    {
+      myQueue.clear();
+      myQueued.clear();
+    }
+  }
+
+  private static List<CCaseContentRevision> getBaseRevisions( Collection<Change> changes )
+  {
+    final List<CCaseContentRevision> revisions = new ArrayList<>();
+    for( Change change : changes )
+    {
+      final ContentRevision revision = change.getBeforeRevision();
+      if( revision instanceof CCaseContentRevision )
+        revisions.add( (CCaseContentRevision)revision );
+    }
+    return revisions;
+  }
+
+  /**
+   * @param first if set, the revisions go to the head of the queue in the
+   *              given order, including those which were queued already
+   */
+  private void enqueue( List<CCaseContentRevision> revisions, boolean first )
+  {
+    if( host.getConfig().isOffline() )
+      return;
+
+    synchronized( myQueue )
+    {
+      for( int i = revisions.size() - 1; i >= 0; i-- )
+      {
+        final CCaseContentRevision revision = revisions.get( first ? i : revisions.size() - 1 - i );
+        if( myFailed.contains( revision ) || revision.isContentFetched() )
+          continue;
+
+        if( myQueued.add( revision ) )
+        {
+          if( first )
+            myQueue.addFirst( revision );
+          else
+            myQueue.addLast( revision );
+        }
+        else if( first )
+        {
+          myQueue.remove( revision );
+          myQueue.addFirst( revision );
+        }
+      }
+
+      while( myWorkers < CleartoolExecutor.BACKGROUND_SESSIONS && myWorkers < myQueue.size() )
+      {
+        myWorkers++;
+        CleartoolExecutor.submitBackground( this::drain );
+      }
+    }
+  }
+
+  private Void drain()
+  {
+    while( true )
+    {
+      final CCaseContentRevision revision;
+      synchronized( myQueue )
+      {
+        revision = myDisposed ? null : myQueue.pollFirst();
+        if( revision == null )
+        {
+          myWorkers--;
+          return null;
+        }
+        myQueued.remove( revision );
+      }
+      if( !revision.preloadContent() )
+      {
+        synchronized( myQueue )
+        {
+          myFailed.add( revision );
+        }
+      }
+    }
+  }
+}
@@ -1,10 +1,10 @@
 package net.sourceforge.transparent.ChangeManagement;
 
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ByteBackedContentRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.CharsetToolkit;
@@ -13,7 +13,8 @@ import com.intellij.openapi.vfs.encoding.EncodingProjectManager;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.WaitForProgressToShow;
 import com.intellij.vcsUtil.VcsImplUtil;
-import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.ContentRevisionFactory;
 import net.sourceforge.transparent.History.CCaseHistoryParser;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
@@ -22,31 +23,41 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 public class CCaseContentRevision implements ByteBackedContentRevision
 {
-  @NonNls private static final String TMP_FILE_NAME = "idea_ccase";
   @NonNls private static final String VERSION_SEPARATOR = "@@";
-  @NonNls private static final String WARNING_NO_GROUP_SIG = "Warning: Can not find a group named";
+  private static final int HEAP_CONTENT_LIMIT = 4 * 1024 * 1024;
 
   private final VirtualFile file;
   private final FilePath revisionPath;
   @NotNull private final Project project;
-  private byte[] myServerContent;
+  @Nullable private final ContentRevisionFactory myFactory;
+  //  Content can always be taken again from the content store, so it is
+  //  not pinned in memory.
+  private volatile SoftReference<byte[]> myServerContent;
   private final TransparentVcs host;
-  private String myVersion;
+  private volatile String myVersion;
+  private volatile boolean myVersionResolved;
+  private volatile boolean myContentFetched;
 
   public CCaseContentRevision(FilePath path, @NotNull Project project) {
     this(path, project, null);
   }
 
   public CCaseContentRevision(FilePath path, @NotNull Project project, final String version) {
+    this(path, project, version, null);
+  }
+
+  public CCaseContentRevision(FilePath path, @NotNull Project project, final String version,
+                              @Nullable ContentRevisionFactory factory) {
     revisionPath = path;
     this.project = project;
+    myFactory = factory;
 
     host = TransparentVcs.getInstance( project );
     file = path.getVirtualFile();
@@ -67,18 +78,98 @@ public class CCaseContentRevision implements ByteBackedContentRevision
 
   @Nullable
   @Override
-  public byte[] getContentAsBytes()
+  public synchronized byte[] getContentAsBytes()
+  {
+    byte[] content = getLoadedContent();
+    if( content == null )
+    {
+      if( myFactory != null && !host.getConfig().isOffline() )
+        CCaseContentPrefetcher.getInstance( project ).prefetchChangeListOf( revisionPath );
+      content = getServerContent();
+      setLoadedContent( content );
+    }
+    return content;
+  }
+
+  /**
+   * @return true if the content is in memory or is ready to be read from
+   *         a local file
+   */
+  public boolean isContentFetched()
+  {
+    return myContentFetched || getLoadedContent() != null;
+  }
+
+  /**
+   * Fetches the content in advance into the content store, without reading
+   * it. Failures are not reported here: the content is requested once again
+   * (and the failure is shown) when it is needed.
+   * @return false if the content could not be fetched
+   */
+  public synchronized boolean preloadContent()
+  {
+    if( isContentFetched() )
+      return true;
+    if( host.getConfig().isOffline() || !host.fileIsUnderVcs( revisionPath ) )
+      return false;
+
+    try
+    {
+      final File file = getContentFile();
+      myContentFetched = file != null;
+      CCaseContentStore.getInstance().release( file );
+    }
+    catch( VcsException | RuntimeException e )
+    {
+      TransparentVcs.LOG.debug( "Can not preload content of " + revisionPath.getPath(), e );
+    }
+    return myContentFetched;
+  }
+
+  /**
+   * Gives the version as a local file, for the callers which can read it
+   * on their own (e.g. to compare contents) without loading it into memory.
+   * The file is to be given to {@link CCaseContentStore#release} once read.
+   * @return null if the version is not known or is not kept as a file
+   */
+  @Nullable
+  public File getContentFile() throws VcsException
+  {
+    if( myVersion == null )
+      resolveVersion( FileStatusManager.getInstance( project ) );
+    return myVersion == null ? null : CCaseContentStore.getInstance().getContentFile( project, revisionPath.getPath(), myVersion );
+  }
+
+  @Nullable
+  private byte[] getLoadedContent()
+  {
+    final SoftReference<byte[]> ref = myServerContent;
+    return ref == null ? null : ref.get();
+  }
+
+  private void setLoadedContent( final byte[] content )
   {
-    if( myServerContent == null )
-      myServerContent = getServerContent();
+    //  Large versions are read from the content store every time they are
+    //  asked for, rather than held in memory.
+    if( content.length > HEAP_CONTENT_LIMIT )
+      return;
 
-    return myServerContent;
+    myServerContent = new SoftReference<>( content );
+    if( myFactory != null )
+      myFactory.contentLoaded( this, content.length );
+  }
+
+  /**
+   * Drops the loaded content, it is read again on the next request.
+   */
+  public void releaseContent()
+  {
+    myServerContent = null;
   }
 
   private byte[] getServerContent()
   {
     @NonNls final String TITLE = "Error";
-    @NonNls final String EXT = ".tmp";
     byte[] content = new byte[0];
 
     //  For files which are in the project but reside outside the repository
@@ -108,37 +199,25 @@ public class CCaseContentRevision implements ByteBackedContentRevision
           //  Using this version string we can construct actual request to the
           //  "Get" command:
           //  "get -to <dest_file> <repository_file>@@<version>"
+          //  Contents of versions are kept in the content store, so the
+          //  command is issued only for the versions we have never seen.
           //-------------------------------------------------------------------
 
-          File tmpFile = FileUtil.createTempFile(TMP_FILE_NAME, EXT);
-          tmpFile.deleteOnExit();
-          File tmpDir = tmpFile.getParentFile();
-          File myTmpFile = new File( tmpDir, Long.toString( new Date().getTime()) );
-
           FileStatusManager mgr = FileStatusManager.getInstance(project);
 
           if (myVersion == null) {
-            detectVersion(mgr);
+            resolveVersion(mgr);
           }
 
           if(myVersion != null) {
-            String path = VcsUtil.getCanonicalLocalPath(revisionPath.getPath());
-            final String out2 = TransparentVcs.cleartoolWithOutput( "get", "-to", myTmpFile.getPath(), path + VERSION_SEPARATOR + myVersion);
-
-            //  We expect that properly finished command produce no (error or
-            //  warning) output. The only messages allowed are the warnings from
-            //  other subsystems which are not related to the "ct get" command per se.
-            if( out2.length() > 0 && !isKnownMessage( out2 ) )
-            {
-              WaitForProgressToShow.runOrInvokeLaterAboveProgress(() -> VcsImplUtil.showErrorMessage(project, out2, TITLE), null, project);
-            }
-            else
-            {
-              content = VcsUtil.getFileByteContent( myTmpFile );
-              myTmpFile.delete();
-            }
+            content = CCaseContentStore.getInstance().getContent( project, revisionPath.getPath(), myVersion );
           }
         }
+        catch( VcsException e )
+        {
+          final String message = e.getMessage();
+          WaitForProgressToShow.runOrInvokeLaterAboveProgress(() -> VcsImplUtil.showErrorMessage(project, message, TITLE), null, project);
+        }
         catch( Exception e )
         {
            VcsImplUtil.showErrorMessage(project, e.getMessage(), TITLE);
@@ -149,6 +228,46 @@ public class CCaseContentRevision implements ByteBackedContentRevision
     return content;
   }
 
+  public boolean isVersionKnown()
+  {
+    return myVersion != null;
+  }
+
+  /**
+   * @return true if the version is not known and was not asked for yet.
+   */
+  public boolean isVersionPending()
+  {
+    return myVersion == null && !myVersionResolved;
+  }
+
+  /**
+   * Sets the version found by a batch request; null means the batch knew
+   * nothing about the file, it is then asked for individually.
+   */
+  public void setResolvedVersion( @Nullable String version )
+  {
+    if( myVersion == null )
+      myVersion = version;
+    myVersionResolved = true;
+  }
+
+  private void resolveVersion(FileStatusManager mgr) {
+    //  Versions of all revisions of the changes are resolved at once, the
+    //  rest of them are usually needed soon.
+    if( myFactory != null ) {
+      try {
+        myFactory.resolvePendingVersions();
+      }
+      catch( VcsException e ) {
+        TransparentVcs.LOG.info( "Can not resolve base versions: " + e.getMessage() );
+      }
+    }
+    if( myVersion == null ) {
+      detectVersion(mgr);
+    }
+  }
+
   private void detectVersion(FileStatusManager mgr) {
     if(file == null) {
       String out = TransparentVcs.cleartoolWithOutput("describe", revisionPath.getPath());
@@ -185,11 +304,6 @@ public class CCaseContentRevision implements ByteBackedContentRevision
     }
   }
 
-  private static boolean isKnownMessage( final String message )
-  {
-    return message.contains( WARNING_NO_GROUP_SIG );
-  }
-  
   //-------------------------------------------------------------------------
   //  The sample format of the "DESCRIBE" command output is as follows below:
   //  --
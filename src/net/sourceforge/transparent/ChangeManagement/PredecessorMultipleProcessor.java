@@ -0,0 +1,169 @@
+package net.sourceforge.transparent.ChangeManagement;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.History.HistoryMultipleProcessor;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Resolves base versions of many files at once: the predecessor of the
+ * version selected in the view is taken from "describe -fmt", several files
+ * per invocation. Hijacked files are private to the view, so for them the
+ * last version of the element is asked with "lshistory file@@" instead.
+ */
+public class PredecessorMultipleProcessor
+{
+  @NonNls private static final String DESCRIBE_COMMAND = "describe";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+  @NonNls private static final String FORMAT_SIG = "%n\t%PVn\n";
+  @NonNls private static final String VERSION_DELIM = "@@";
+
+  private static final int  CMDLINE_MAX_LENGTH = 1024;
+
+  private final String[] files;
+  private Map<String, String> myPredecessors;
+
+  public PredecessorMultipleProcessor( List<String> paths )
+  {
+    files = ArrayUtil.toStringArray(paths);
+  }
+
+  /**
+   * Fills versions of all revisions which do not know them yet.
+   */
+  public static void resolve( Project project, Collection<CCaseContentRevision> revisions ) throws VcsException
+  {
+    final FileStatusManager mgr = FileStatusManager.getInstance( project );
+    final Map<String, CCaseContentRevision> described = new LinkedHashMap<>();
+    final Map<String, CCaseContentRevision> hijacked = new LinkedHashMap<>();
+    for( CCaseContentRevision revision : revisions )
+    {
+      if( revision.isVersionKnown() )
+        continue;
+
+      final VirtualFile file = revision.getFile().getVirtualFile();
+      final String path = revision.getFile().getPath();
+      if( file != null && mgr.getStatus( file ) == FileStatus.HIJACKED )
+        hijacked.put( path + VERSION_DELIM, revision );
+      else
+        described.put( path, revision );
+    }
+
+    if( !described.isEmpty() )
+    {
+      final PredecessorMultipleProcessor processor = new PredecessorMultipleProcessor( new ArrayList<>( described.keySet() ) );
+      processor.execute();
+      for( Map.Entry<String, CCaseContentRevision> entry : described.entrySet() )
+      {
+        entry.getValue().setResolvedVersion( processor.getPredecessor( entry.getKey() ) );
+      }
+    }
+
+    if( !hijacked.isEmpty() )
+    {
+      final HistoryMultipleProcessor processor = new HistoryMultipleProcessor( new ArrayList<>( hijacked.keySet() ), 1 );
+      processor.execute();
+      for( Map.Entry<String, CCaseContentRevision> entry : hijacked.entrySet() )
+      {
+        String version = processor.getLastVersion( entry.getKey() );
+        if( version != null && version.startsWith( VERSION_DELIM ) )
+          version = version.substring( VERSION_DELIM.length() );
+        entry.getValue().setResolvedVersion( version );
+      }
+    }
+  }
+
+  public void execute() throws VcsException
+  {
+    final List<BatchTask> tasks = new ArrayList<>();
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      int cmdLineLen = 0;
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 1;
+      }
+      tasks.add( new BatchTask( batch ) );
+    }
+
+    myPredecessors = new HashMap<>();
+    for( Map<String, String> part : CleartoolExecutor.invokeAll( tasks ) )
+    {
+      myPredecessors.putAll( part );
+    }
+  }
+
+  /**
+   * @return predecessor version of the file without leading "@@", or null if
+   *         cleartool reported nothing for it (e.g. it is not a vob object).
+   */
+  @Nullable
+  public String getPredecessor( String path )
+  {
+    return myPredecessors.get( path );
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  private static class BatchTask implements CleartoolExecutor.Task<Map<String, String>>
+  {
+    private final List<String> myPaths;
+
+    BatchTask( final List<String> paths )
+    {
+      myPaths = paths;
+    }
+
+    @Override
+    public Map<String, String> run()
+    {
+      final List<String> options = new ArrayList<>();
+      options.add( DESCRIBE_COMMAND );
+      options.add( FMT_SWITCH );
+      options.add( FORMAT_SIG );
+      options.addAll( myPaths );
+      final String out = TransparentVcs.cleartoolWithOutput( ArrayUtil.toStringArray( options ) );
+
+      final Map<String, String> pathsByKey = new HashMap<>();
+      for( String path : myPaths )
+      {
+        pathsByKey.put( toKey( path ), path );
+      }
+
+      //  Lines look like "<file>@@<version>\t<predecessor>"; warnings of
+      //  other subsystems may be mixed in, they have no tab or no "@@".
+      final Map<String, String> result = new HashMap<>();
+      for( String line : LineTokenizer.tokenize( out, false ) )
+      {
+        final int tabIndex = line.lastIndexOf( '\t' );
+        final int delimIndex = line.lastIndexOf( VERSION_DELIM, tabIndex );
+        if( tabIndex == -1 || delimIndex == -1 || tabIndex == line.length() - 1 )
+          continue;
+
+        final String path = pathsByKey.get( toKey( line.substring( 0, delimIndex ) ) );
+        if( path != null )
+          result.put( path, line.substring( tabIndex + 1 ).trim() );
+      }
+      return result;
+    }
+  }
+}
@@ -2,24 +2,32 @@ package net.sourceforge.transparent.Checkin;
 
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CommandLineClearCase;
+import net.sourceforge.transparent.Runner;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.*;
 
+/**
+ * Makes elements of many new files at once: "mkelem -ci" creates the element
+ * and checks the file content in as its first version, several files per
+ * invocation. The folders of the files must be checked out already. Like
+ * "ci", "mkelem" goes on after a failing file, and errors are attributed to
+ * the files from the combined output.
+ */
 public class AddMultipleProcessor
 {
   @NonNls private static final String MKELEM_COMMAND = "mkelem";
+  @NonNls private static final String CHECKIN_SWITCH = "-ci";
   @NonNls private static final String COMMENT_SWITCH = "-c";
   @NonNls private static final String NO_COMMENT_SWITCH = "-nc";
 
-  private static final int  CMDLINE_MAX_LENGTH = 1024;
-
   private final String[] files;
   private final String comment;
+  private final Map<String, String> myErrors = new LinkedHashMap<>();
 
-  public AddMultipleProcessor( HashSet<String> paths, String comment )
+  public AddMultipleProcessor( Collection<String> paths, String comment )
   {
     files = ArrayUtil.toStringArray(paths);
     this.comment = comment;
@@ -29,34 +37,45 @@ public class AddMultipleProcessor
   {
     int currFileIndex = 0;
     int cmdLineLen;
-    LinkedList<String> options = new LinkedList<>();
+    List<String> options = new ArrayList<>();
     while( currFileIndex < files.length )
     {
       options.clear();
       options.add(MKELEM_COMMAND);
+      options.add(CHECKIN_SWITCH);
       if( StringUtil.isNotEmpty( comment ) )
       {
         options.add( COMMENT_SWITCH );
-        options.add( quote(comment) );
-        cmdLineLen = MKELEM_COMMAND.length() + COMMENT_SWITCH.length() + comment.length();
+        options.add( CommandLineClearCase.quote( comment ) );
+        cmdLineLen = MKELEM_COMMAND.length() + CHECKIN_SWITCH.length() + COMMENT_SWITCH.length() + comment.length() + 6;
       }
       else
       {
         options.add( NO_COMMENT_SWITCH );
-        cmdLineLen = MKELEM_COMMAND.length() + NO_COMMENT_SWITCH.length();
+        cmdLineLen = MKELEM_COMMAND.length() + CHECKIN_SWITCH.length() + NO_COMMENT_SWITCH.length() + 2;
       }
 
-      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && (batch.isEmpty() || cmdLineLen < CheckinMultipleProcessor.CMDLINE_MAX_LENGTH) )
       {
         String path = files[ currFileIndex++ ];
-        options.add( path );
-        cmdLineLen += path.length() + 1;
+        batch.add( path );
+        cmdLineLen += path.length() + 3;
       }
+      options.addAll( batch );
 
-      String[] aOptions = ArrayUtil.toStringArray(options);
-       TransparentVcs.cleartoolWithOutput( aOptions );
+      final Runner runner = new Runner();
+      final String out = TransparentVcs.cleartoolWithOutput( runner, ArrayUtil.toStringArray( options ) );
+      myErrors.putAll( CheckinMultipleProcessor.parseErrors( out, runner.isSuccessfull(), batch,
+                                                             CheckinMultipleProcessor.CHECKED_IN_SIG ) );
     }
   }
-  
-  private  static String quote(String str) {  return "\"" + str.replaceAll("\"", "\\\"") + "\"";  }
+
+  /**
+   * @return error output for every file which was not added
+   */
+  public Map<String, String> getErrors()
+  {
+    return myErrors;
+  }
 }
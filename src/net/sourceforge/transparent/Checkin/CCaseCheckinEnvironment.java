@@ -32,8 +32,13 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.intellij.util.containers.ContainerUtil.map;
@@ -51,7 +56,8 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
 
   private final Project project;
   private final TransparentVcs host;
-  private double fraction;
+  private volatile ProgressIndicator myProgress;
+  private volatile double fraction;
   private String submittedChangeListName;
 
   public CCaseCheckinEnvironment( Project project, TransparentVcs host )
@@ -90,24 +96,27 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
    */
   public String getDefaultMessageFor( FilePath[] filesToCheckin )
   {
-    ClearCase cc = host.getClearCase();
-    HashSet<String> commentsPerFile = new HashSet<>();
+    //  For ADDED or DELETED files checkout comment has no sence.
+    //  While DELETED status is determined indirectly (its VirtualFile is null),
+    //  for ADDED we need to ask.
+    List<String> checkedOut = new ArrayList<>();
     for( FilePath path : filesToCheckin )
     {
-      //  For ADDED or DELETED files checkout comment has no sence.
-      //  While DELETED status is determined indirectly (its VirtualFile is null),
-      //  for ADDED we need to ask.
       VirtualFile vfile = path.getVirtualFile();
-      if( vfile != null )
-      {
-        FileStatus status = FileStatusManager.getInstance(project).getStatus( vfile );
-        if( status != FileStatus.ADDED )
-        {
-          String fileComment = cc.getCheckoutComment( new File( path.getPresentableUrl() ) );
-          if( StringUtil.isNotEmpty( fileComment ) )
-            commentsPerFile.add( fileComment );
-        }
-      }
+      if( vfile != null && FileStatusManager.getInstance(project).getStatus( vfile ) != FileStatus.ADDED )
+        checkedOut.add( new File( path.getPresentableUrl() ).getAbsolutePath() );
+    }
+
+    //  Read the comments of all files at once instead of one "lsco" per file.
+    CCaseCheckoutInfoCache.getInstance( project ).prefetch( checkedOut );
+
+    ClearCase cc = host.getClearCase();
+    HashSet<String> commentsPerFile = new HashSet<>();
+    for( String path : checkedOut )
+    {
+      String fileComment = cc.getCheckoutComment( new File( path ) );
+      if( StringUtil.isNotEmpty( fileComment ) )
+        commentsPerFile.add( fileComment );
     }
 
     StringBuilder overallComment = new StringBuilder();
@@ -139,8 +148,9 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
                                    @NotNull NullableFunction<Object, Object> parametersHolder,
                                    Set<String> feedback)
   {
-    List<VcsException> errors = new ArrayList<>();
-    HashSet<FilePath> processedFiles = new HashSet<>();
+    //  Partitions are committed in parallel, so they share thread-safe results.
+    final List<VcsException> errors = Collections.synchronizedList( new ArrayList<>() );
+    final Set<FilePath> processedFiles = Collections.synchronizedSet( new HashSet<>() );
     if (! SystemInfo.isWindows) {
       comment = comment.replace( "\"", "\\\"");
     }
@@ -150,41 +160,118 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
 
     adjustChangesWithRenamedParentFolders( changes );
 
+    initProgress( changes.size() );
     try
     {
-      initProgress( changes.size() );
-
-      //  Committing of renamed folders must be performed first since they
-      //  affect all other checkings under them (except those having status
-      //  "ADDED") since:
-      //  - if modified file is checked in before renamed folder checkin then
-      //    we need to checkin from (yet) nonexisting file into (already) non-
-      //    existing space. It is too tricky to recreate the old folders
-      //    structure and commit from out of there.
-      //  - if modified file is checked AFTER the renamed folder has been
-      //    checked in, we just have to checkin in into the necessary place,
-      //    just get the warning that we checking in file which was checked out
-      //    from another location. Supress it.
-      commitRenamedFolders( changes, comment, errors );
-
-      commitDeleted( changes, comment, errors );
-
-      //  IMPORTANT!
-      //  Committment of the changed files must be performed first because of
-      //  specially processed exceptions described in the ChangeProvider.
-      commitChanged( changes, comment, processedFiles, errors );
-      commitNew( changes, comment, processedFiles, errors );
+      //  Changes under different VCS roots (the VOB folders of the views)
+      //  can not interfere with each other, so every root runs its own
+      //  pipeline on the cleartool executor.
+      final String partitionComment = comment;
+      final List<CleartoolExecutor.Task<Void>> tasks = new ArrayList<>();
+      for( List<Change> partition : partitionByRoots( changes ) )
+      {
+        tasks.add( () -> {
+          try
+          {
+            commitPartition( partition, partitionComment, processedFiles, errors );
+          }
+          catch( ProcessCanceledException e )
+          {
+            //  Stop this partition only, the others notice the cancel themselves.
+          }
+          return null;
+        });
+      }
+      CleartoolExecutor.invokeAll( tasks );
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
     }
-    catch( ProcessCanceledException e )
+    finally
     {
-      //  Nothing to do, just refresh the files which have been already committed.
+      myProgress = null;
     }
     checkForUnchangedFolders(changes, errors, comment);
 
     VfsUtil.markDirtyAndRefresh(true, true, false, map2Array(processedFiles, VirtualFile.class, FilePath::getVirtualFile));
     VcsDirtyScopeManager.getInstance(project).filesDirty(map(processedFiles, FilePath::getVirtualFile), null);
 
-    return errors;
+    return new ArrayList<>( errors );
+  }
+
+  private void commitPartition( List<Change> changes, String comment,
+                                Set<FilePath> processedFiles, List<VcsException> errors )
+  {
+    //  Committing of renamed folders must be performed first since they
+    //  affect all other checkings under them (except those having status
+    //  "ADDED") since:
+    //  - if modified file is checked in before renamed folder checkin then
+    //    we need to checkin from (yet) nonexisting file into (already) non-
+    //    existing space. It is too tricky to recreate the old folders
+    //    structure and commit from out of there.
+    //  - if modified file is checked AFTER the renamed folder has been
+    //    checked in, we just have to checkin in into the necessary place,
+    //    just get the warning that we checking in file which was checked out
+    //    from another location. Supress it.
+    commitRenamedFolders( changes, comment, errors );
+
+    //  Deletions and renames are planned together, so that every folder
+    //  they touch is checked out and checked in only once.
+    final DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( host, comment );
+    final List<FilePath> plannedFiles = new ArrayList<>();
+    commitDeleted( changes, comment, planner, plannedFiles );
+
+    //  IMPORTANT!
+    //  Committment of the changed files must be performed first because of
+    //  specially processed exceptions described in the ChangeProvider.
+    commitChanged( changes, comment, planner, plannedFiles, processedFiles, errors );
+    executePlanned( planner, plannedFiles, errors );
+
+    commitNew( changes, comment, processedFiles, errors );
+  }
+
+  /**
+   * Splits the changes by the VCS roots of their revisions. A change moving
+   * an element from one root into another joins the partitions of both roots.
+   */
+  private List<List<Change>> partitionByRoots( List<Change> changes )
+  {
+    final Map<VirtualFile, List<Change>> partitions = new HashMap<>();
+    final Set<List<Change>> result = Collections.newSetFromMap( new IdentityHashMap<>() );
+    for( Change change : changes )
+    {
+      List<Change> partition = null;
+      for( ContentRevision rev : new ContentRevision[] { change.getBeforeRevision(), change.getAfterRevision() } )
+      {
+        if( rev == null )
+          continue;
+
+        final VirtualFile root = VcsUtil.getVcsRootFor( project, rev.getFile() );
+        final List<Change> rootPartition = partitions.get( root );
+        if( partition == null )
+        {
+          partition = rootPartition != null ? rootPartition : new ArrayList<>();
+        }
+        else if( rootPartition != null && rootPartition != partition )
+        {
+          partition.addAll( rootPartition );
+          result.remove( rootPartition );
+          for( Map.Entry<VirtualFile, List<Change>> entry : partitions.entrySet() )
+          {
+            if( entry.getValue() == rootPartition )
+              entry.setValue( partition );
+          }
+        }
+        partitions.put( root, partition );
+      }
+      if( partition != null )
+      {
+        partition.add( change );
+        result.add( partition );
+      }
+    }
+    return new ArrayList<>( result );
   }
 
   private void checkForUnchangedFolders(List<Change> changes, final List<VcsException> errors, final String comment) {
@@ -273,7 +360,7 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   }
 
   private void commitNew( List<Change> changes, String comment,
-                          HashSet<FilePath> processedFiles, List<VcsException> errors )
+                          Set<FilePath> processedFiles, List<VcsException> errors )
   {
     HashSet<FilePath> files = new HashSet<>();
     HashSet<FilePath> folders = new HashSet<>();
@@ -296,7 +383,7 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
     checkinParentFolders( checkedOutFolders, comment, errors );
   }
 
-  private void collectNewFilesAndFolders( List<Change> changes, HashSet<FilePath> processedFiles,
+  private void collectNewFilesAndFolders( List<Change> changes, Set<FilePath> processedFiles,
                                           HashSet<FilePath> folders, HashSet<FilePath> files )
   {
     for( Change change : changes )
@@ -322,7 +409,6 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   {
     FilePath[] foldersSorted = folders.toArray( new FilePath[ folders.size() ] );
     foldersSorted = VcsUtil.sortPathsFromOutermost( foldersSorted );
-    initProgress( foldersSorted.length );
 
     for( FilePath folder : foldersSorted )
     {
@@ -359,12 +445,51 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
     }
   }
 
+  /**
+   * Files are added with "mkelem -ci", several files per command, separately
+   * for every (already checked out) parent folder; folders are processed in
+   * parallel.
+   */
   private void addFiles( HashSet<FilePath> files, String comment, List<VcsException> errors )
   {
-    initProgress( files.size() );
+    final Map<FilePath, Map<String, FilePath>> filesByFolder = new LinkedHashMap<>();
+    for( FilePath file : files )
+    {
+      filesByFolder.computeIfAbsent( file.getParentPath(), k -> new LinkedHashMap<>() ).put( file.getIOFile().getAbsolutePath(), file );
+    }
+
+    final List<CleartoolExecutor.Task<Map<String, String>>> tasks = new ArrayList<>();
+    for( Map<String, FilePath> folderFiles : filesByFolder.values() )
+    {
+      tasks.add( () -> {
+        AddMultipleProcessor processor = new AddMultipleProcessor( folderFiles.keySet(), comment );
+        processor.execute();
+        return processor.getErrors();
+      });
+    }
+
+    try
+    {
+      final List<Map<String, String>> results = CleartoolExecutor.invokeAll( tasks );
+      int index = 0;
+      for( Map<String, FilePath> folderFiles : filesByFolder.values() )
+      {
+        for( Map.Entry<String, String> error : results.get( index ).entrySet() )
+        {
+          VcsException e = new VcsException( error.getValue() );
+          e.setVirtualFile( folderFiles.get( error.getKey() ).getVirtualFile() );
+          errors.add( e );
+        }
+        index++;
+      }
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+    }
+
     for( FilePath file : files )
     {
-      host.addFileToCheckedoutFolder( file.getIOFile(), comment, errors );
       host.deleteNewFile( file.getVirtualFile() );
 
       //-----------------------------------------------------------------------
@@ -387,8 +512,7 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
     if( CCaseSharedConfig.getInstance(project).isUseUcmModel() )
     {
       CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( project );
-
-      initProgress( files.size() );
+      ChangeActivityMultipleProcessor processor = new ChangeActivityMultipleProcessor( project );
 
       for( FilePath file : files )
       {
@@ -396,16 +520,16 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
         String currentActivity = getChangeListName( file );
         if(( activity != null ) && !activity.equals( currentActivity ) )
         {
-          host.changeActivityForLastVersion( file, activity, currentActivity, errors );
+          processor.add( file, activity, currentActivity );
         }
         incrementProgress( CHANGE_ACTIVITY + file.getName() );
       }
+      processor.execute( errors );
     }
   }
 
   private void checkinParentFolders( HashSet<FilePath> folders, String comment, List<VcsException> errors )
   {
-    initProgress( folders.size() );
     for( FilePath folder : folders )
     {
       host.checkinFile( folder, comment, errors );
@@ -432,28 +556,41 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
     }
   }
 
-  private void commitDeleted( List<Change> changes, String comment, List<VcsException> errors )
+  private void commitDeleted( List<Change> changes, String comment, DirectoryCheckinPlanner planner,
+                              List<FilePath> plannedFiles )
   {
     for( Change change : changes )
     {
       if( VcsUtil.isChangeForDeleted( change ) )
       {
         final FilePath fp = change.getBeforeRevision().getFile();
-        host.removeFile( fp.getIOFile(), comment, errors );
+        host.planRemoveFile( planner, fp.getIOFile(), comment );
 
         String path = VcsUtil.getCanonicalLocalPath( fp.getPath() );
         host.deletedFiles.remove( path );
         host.deletedFolders.remove( path );
 
-        incrementProgress( fp.getPath() );
+        plannedFiles.add( fp );
         VcsDirtyScopeManager.getInstance(project).fileDirty(fp);
       }
     }
   }
 
-  private void commitChanged( List<Change> changes, String comment,
-                              HashSet<FilePath> processedFiles, List<VcsException> errors )
+  private void executePlanned( DirectoryCheckinPlanner planner, List<FilePath> plannedFiles, List<VcsException> errors )
   {
+    planner.execute( errors );
+    for( FilePath file : plannedFiles )
+    {
+      incrementProgress( file.getPath() );
+    }
+  }
+
+  private void commitChanged( List<Change> changes, String comment, DirectoryCheckinPlanner planner,
+                              List<FilePath> plannedFiles, Set<FilePath> processedFiles, List<VcsException> errors )
+  {
+    //  Renamed and moved files are planned for the folders they change, all
+    //  others are checked in together, several files per command.
+    final List<FilePath> modified = new ArrayList<>();
     for( Change change : changes )
     {
       if( !VcsUtil.isChangeForNew( change ) &&
@@ -473,41 +610,54 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
 
           if( Comparing.equal(oldFile.getParentPath(), file.getParentPath()) )
           {
-            host.renameAndCheckInFile( oldFile.getIOFile(), file.getName(), comment, errors );
+            host.planRenameAndCheckInFile( planner, oldFile.getIOFile(), file.getName(), comment );
           }
           else
           {
             String newFolder = file.getVirtualFileParent().getPath();
-            host.moveRenameAndCheckInFile( oldPath, newFolder, file.getName(), comment, errors );
+            host.planMoveRenameAndCheckInFile( planner, oldPath, newFolder, file.getName(), comment );
           }
           host.renamedFiles.remove( newPath );
+
+          processedFiles.add( file );
+          plannedFiles.add( file );
         }
         else
         {
-          host.checkinFile( file, comment, errors );
-
-          CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( project );
-          if( CCaseSharedConfig.getInstance(project).isUseUcmModel() && viewsManager.isUcmViewForFile( file ) )
-          {
-            //  If the file was checked out using one view's activity but has then
-            //  been moved to another changelist (activity) we must issue "chactivity"
-            //  command for the file element so that subsequent "checkin" command
-            //  behaves as desired.
-
-            String activity = viewsManager.getCheckoutActivityForFile( file.getPath() );
-            if(( activity != null ) && !activity.equals( submittedChangeListName ) )
-            {
-              TransparentVcs.LOG.info( " --changeActivityForLastVersion - activities do not coinside: [" +
-                                       activity + "] vs [" + submittedChangeListName + "]" );
-              host.changeActivityForLastVersion( file, activity, submittedChangeListName, errors );
-            }
-          }
+          modified.add( file );
         }
+      }
+    }
+
+    if( modified.isEmpty() )
+      return;
+
+    host.checkinFiles( modified, comment, errors );
 
-        processedFiles.add( file );
-        incrementProgress( file.getPath() );
+    CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( project );
+    ChangeActivityMultipleProcessor processor = new ChangeActivityMultipleProcessor( project );
+    for( FilePath file : modified )
+    {
+      if( CCaseSharedConfig.getInstance(project).isUseUcmModel() && viewsManager.isUcmViewForFile( file ) )
+      {
+        //  If the file was checked out using one view's activity but has then
+        //  been moved to another changelist (activity) we must issue "chactivity"
+        //  command for the file element so that subsequent "checkin" command
+        //  behaves as desired.
+
+        String activity = viewsManager.getCheckoutActivityForFile( file.getPath() );
+        if(( activity != null ) && !activity.equals( submittedChangeListName ) )
+        {
+          TransparentVcs.LOG.info( " --changeActivityForLastVersion - activities do not coinside: [" +
+                                   activity + "] vs [" + submittedChangeListName + "]" );
+          processor.add( file, activity, submittedChangeListName );
+        }
       }
+
+      processedFiles.add( file );
+      incrementProgress( file.getPath() );
     }
+    processor.execute( errors );
   }
 
   /**
@@ -516,17 +666,19 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   public List<VcsException> scheduleMissingFileForDeletion( List<FilePath> paths )
   {
     List<VcsException> errors = new ArrayList<>();
+    DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( host, null );
     for( FilePath file : paths )
     {
       String path = VcsUtil.getCanonicalLocalPath( file.getPath() );
       if( host.removedFiles.contains( path ) || host.removedFolders.contains( path ) )
       {
-        host.removeFile( file.getIOFile(), null, errors );
+        host.planRemoveFile( planner, file.getIOFile(), null );
       }
 
       host.removedFiles.remove( path );
       host.removedFolders.remove( path );
     }
+    planner.execute( errors );
     return errors;
   }
 
@@ -592,24 +744,29 @@ public class CCaseCheckinEnvironment implements CheckinEnvironment
   
   private void initProgress( int total )
   {
-    final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
-    if( progress != null )
+    myProgress = ProgressManager.getInstance().getProgressIndicator();
+    if( myProgress != null )
     {
-      fraction = 1.0 / (double) total;
-      progress.setIndeterminate( false );
-      progress.setFraction( 0.0 );
+      fraction = 1.0 / (double) Math.max( total, 1 );
+      myProgress.setIndeterminate( false );
+      myProgress.setFraction( 0.0 );
     }
   }
 
+  /**
+   * Called from the threads of all partitions, which report to the
+   * indicator of the commit.
+   */
   private void incrementProgress( String text ) throws ProcessCanceledException
   {
-    final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+    final ProgressIndicator progress = myProgress;
     if( progress != null )
     {
-      double newFraction = progress.getFraction();
-      newFraction += fraction;
-      progress.setFraction( newFraction );
-      progress.setText( text );
+      synchronized( progress )
+      {
+        progress.setFraction( Math.min( 1.0, progress.getFraction() + fraction ) );
+        progress.setText( text );
+      }
 
       if( progress.isCanceled() )
         throw new ProcessCanceledException();
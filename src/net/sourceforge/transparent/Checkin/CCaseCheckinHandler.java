@@ -5,6 +5,7 @@ import com.intellij.openapi.vcs.CheckinProjectPanel;
 import com.intellij.openapi.vcs.checkin.CheckinHandler;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.ChangeManagement.CCaseContentPrefetcher;
 import net.sourceforge.transparent.TransparentVcs;
 
 import java.util.Collection;
@@ -21,6 +22,10 @@ public class CCaseCheckinHandler extends CheckinHandler
   {
     this.host = host;
     this.panel = panel;
+
+    //  Diffs are usually looked through before the commit, start loading
+    //  base revisions while the dialog is being shown.
+    CCaseContentPrefetcher.getInstance( panel.getProject() ).prefetch( panel.getSelectedChanges() );
   }
 
   public ReturnResult beforeCheckin()
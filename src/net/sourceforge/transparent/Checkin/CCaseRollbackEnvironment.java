@@ -12,7 +12,9 @@ import com.intellij.openapi.vcs.rollback.RollbackProgressListener;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
 import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.CCaseCheckoutInfoCache;
 import net.sourceforge.transparent.Status;
 import net.sourceforge.transparent.TransparentVcs;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
@@ -20,9 +22,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.*;
 
 import static com.intellij.util.containers.ContainerUtil.map;
 import static com.intellij.util.containers.ContainerUtil.map2Array;
@@ -30,6 +30,13 @@ import static com.intellij.util.containers.ContainerUtil.map2Array;
 public class CCaseRollbackEnvironment implements RollbackEnvironment
 {
   @NonNls private static final String FILE_NOT_IN_VOB_SIG = "element name not found";
+
+  @NonNls private static final String UPDATE_CMD = "update";
+  @NonNls private static final String OVERWRITE_SWITCH = "-overwrite";
+  @NonNls private static final String FORCE_SWITCH = "-force";
+  @NonNls private static final String LIST_CHECKOUTS_CMD = "lsco";
+  @NonNls private static final String SHORT_SWITCH = "-short";
+  @NonNls private static final String RECURSE_SWITCH = "-recurse";
   
   @NonNls private static final String UPDATE_SUCC_PREFIX_1 = "Processing dir";
   @NonNls private static final String UPDATE_SUCC_PREFIX_2 = "Loading ";
@@ -59,8 +66,11 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
     listener.determinate();
     rollbackRenamedFolders( changes, processedFiles, listener);
     rollbackNew( changes, processedFiles, listener);
-    rollbackDeleted( changes, processedFiles, errors, listener);
-    rollbackChanged( changes, processedFiles, errors, listener);
+
+    RollbackPlan plan = new RollbackPlan();
+    rollbackDeleted( changes, plan, processedFiles, listener);
+    rollbackChanged( changes, plan, processedFiles, errors, listener);
+    plan.execute( errors );
 
     VfsUtil.markDirtyAndRefresh(true, true, false, map2Array(processedFiles, VirtualFile.class, FilePath::getVirtualFile));
     VcsDirtyScopeManager.getInstance(project).filesDirty(map(processedFiles, FilePath::getVirtualFile), null);
@@ -149,7 +159,7 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
     newFilesAndfolders.addAll( foldersNew );
   }
 
-  private void rollbackDeleted( List<Change> changes, HashSet<FilePath> processedFiles, List<VcsException> errors,
+  private void rollbackDeleted( List<Change> changes, RollbackPlan plan, HashSet<FilePath> processedFiles,
                                 @NotNull final RollbackProgressListener listener)
   {
     for( Change change : changes )
@@ -158,14 +168,14 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
       {
         listener.accept(change);
         FilePath filePath = change.getBeforeRevision().getFile();
-        rollbackMissingFileDeletion( filePath, errors );
+        plan.addMissingFileDeletion( filePath );
         processedFiles.add( filePath );
       }
     }
   }
 
-  private void rollbackChanged( List<Change> changes, HashSet<FilePath> processedFiles, List<VcsException> errors,
-                                @NotNull final RollbackProgressListener listener)
+  private void rollbackChanged( List<Change> changes, RollbackPlan plan, HashSet<FilePath> processedFiles,
+                                List<VcsException> errors, @NotNull final RollbackProgressListener listener)
   {
     for( Change change : changes )
     {
@@ -182,7 +192,6 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
         }
 
         FilePath filePath = change.getAfterRevision().getFile();
-        String path = filePath.getPath();
         listener.accept(change);
 
         if(isRenameChange)
@@ -195,29 +204,17 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
           //    in the repository. We need to ignore the error message from
           //    the SourceSafe ("file not existing") and just delete the
           //    new file.
-
-          List<VcsException> localErrors = new ArrayList<>();
           FilePath oldFile = change.getBeforeRevision().getFile();
-          host.undoCheckoutFile( oldFile.getIOFile(), localErrors );
-          if( localErrors.size() > 0 && !isUnknownFileError( localErrors ) ) {
-            errors.addAll( localErrors );
-          }
-
+          plan.addRenamed( oldFile, filePath );
           host.renamedFiles.remove( filePath.getPath() );
-          FileUtil.delete( new File( path ) );
+        }
+        else if( change.getFileStatus() == FileStatus.HIJACKED )
+        {
+          plan.addUpdate( filePath.getPath() );
         }
         else
         {
-          final Status fileStatus = host.getStatusSafely(filePath.getIOFile());
-          if (! Status.HIJACKED.equals(fileStatus)) {
-            if (filePath.getVirtualFile() == null) {
-              host.undoCheckoutFile( filePath.getIOFile(), errors );
-            } else {
-              host.undoCheckoutFile( filePath.getVirtualFile(), errors );
-            }
-          } else {
-            updateFile( path, errors );
-          }
+          plan.addUndoCheckout( filePath );
         }
         processedFiles.add( filePath );
       }
@@ -226,79 +223,183 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
 
   public void rollbackMissingFileDeletion(List<FilePath> paths, final List<VcsException> exceptions, final RollbackProgressListener listener)
   {
+    RollbackPlan plan = new RollbackPlan();
     for( FilePath path : paths )
     {
       listener.accept(path);
-      rollbackMissingFileDeletion( path, exceptions );
+      plan.addMissingFileDeletion( path );
     }
+    plan.execute( exceptions );
   }
 
-  private void rollbackMissingFileDeletion( FilePath path, List<VcsException> errors )
+  /**
+   * Collects what is to be reverted and then reverts it in phases, each of
+   * them being a few cleartool commands for all the files:
+   * - "unco -rm" for checked out files, the old names of renamed files and
+   *   locally deleted files;
+   * - "update -overwrite" for hijacked files, locally deleted folders and
+   *   deleted files whose checkout could not be undone (they were not
+   *   checked out);
+   * - "lsco" in all restored folders and "unco -rm" for the checkouts
+   *   found there.
+   */
+  private class RollbackPlan
   {
-    VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance( project );
+    //  How errors of "unco" are treated differ for these groups.
+    private final Map<String, FilePath> myUndo = new LinkedHashMap<>();
+    private final Map<String, FilePath> myUndoOrUpdate = new LinkedHashMap<>();
+    private final Map<String, FilePath> myUndoRenamed = new LinkedHashMap<>();
+    private final List<File> myRenamedFiles = new ArrayList<>();
+    private final Set<String> myUpdates = new LinkedHashSet<>();
+    private final List<FilePath> myFolders = new ArrayList<>();
+    private final List<FilePath> myDirtyPaths = new ArrayList<>();
+
+    void addUndoCheckout( FilePath path )
+    {
+      myUndo.put( path.getIOFile().getAbsolutePath(), path );
+    }
 
-    String normPath = VcsUtil.getCanonicalLocalPath( path.getPath() );
-    if( host.isFolderRemoved( normPath ) || host.isFolderRemovedForVcs( normPath ) )
+    void addUpdate( String path )
     {
-      //  For ClearCase to get back the locally removed folder, it is
-      //  necessary to issue "Update" command. This will revert it to the
-      //  state before the checking out on deletion.
-      updateFile( path.getPath(), errors );
+      myUpdates.add( path );
+    }
 
-      //  In the case we restoring the folder which IS NOT in the repository
-      //  (e.g. it was inproperly put into the list of deleted or it was already
-      //  removed from the VOB), it is not restored locally and no update is
-      //  needed. BUT: since it is not created, its record in the hash of removed
-      //  folders is not removed too - thus remove it explicitely here.
-      if( path.getIOFile().exists() )
+    void addRenamed( FilePath oldPath, FilePath newPath )
+    {
+      myUndoRenamed.put( oldPath.getIOFile().getAbsolutePath(), oldPath );
+      myRenamedFiles.add( newPath.getIOFile() );
+    }
+
+    void addMissingFileDeletion( FilePath path )
+    {
+      String normPath = VcsUtil.getCanonicalLocalPath( path.getPath() );
+      if( host.isFolderRemoved( normPath ) || host.isFolderRemovedForVcs( normPath ) )
       {
-        //  If that folder contained checked out files, then they are not
-        //  reverted back after the parent folder is updated. For each of
-        //  file we need to issue "undocheckout" command.
-        undocheckoutInFolder( path.getPath(), errors );
+        //  For ClearCase to get back the locally removed folder, it is
+        //  necessary to issue "Update" command. This will revert it to the
+        //  state before the checking out on deletion.
+        myUpdates.add( path.getPath() );
+        myFolders.add( path );
       }
       else
       {
-        host.removeFolderFromDeleted( normPath );
+        //  For ClearCase to get back the locally removed file:
+        //  1. Issue "Undo Checkout" command. This will revert it to the state
+        //     before its checkout on deletion (if it was checked out previously).
+        //  2. Otherwise (we rollback the file which was not previusly checked
+        //     out) perform "Update".
+        myUndoOrUpdate.put( path.getIOFile().getAbsolutePath(), path );
       }
+      myDirtyPaths.add( path );
     }
-    else
+
+    void execute( List<VcsException> errors )
     {
-      //  For ClearCase to get back the locally removed file:
-      //  1. Issue "Undo Checkout" command. This will revert it to the state
-      //     before its checkout on deletion (if it was checked out previously).
-      //  2. Otherwise (we rollback the file which was not previusly checked
-      //     out) perform "Update".
-      List<VcsException> localErrors = new ArrayList<>();
-      host.undoCheckoutFile( path.getIOFile(), localErrors );
-      if( localErrors.size() > 0 )
+      final Map<String, FilePath> all = new LinkedHashMap<>( myUndo );
+      all.putAll( myUndoOrUpdate );
+      all.putAll( myUndoRenamed );
+      final Map<String, String> failed = undoCheckouts( all.keySet() );
+
+      for( Map.Entry<String, String> entry : failed.entrySet() )
+      {
+        final String path = entry.getKey();
+        final String message = entry.getValue();
+        if( myUndoOrUpdate.containsKey( path ) )
+          myUpdates.add( myUndoOrUpdate.get( path ).getPath() );
+        else if( !myUndoRenamed.containsKey( path ) || !isUnknownFileError( message ) )
+          errors.add( createError( message, all.get( path ).getIOFile() ) );
+      }
+      for( File file : myRenamedFiles )
+      {
+        FileUtil.delete( file );
+      }
+
+      updateFiles( myUpdates, errors );
+
+      //  In the case we restoring the folder which IS NOT in the repository
+      //  (e.g. it was inproperly put into the list of deleted or it was already
+      //  removed from the VOB), it is not restored locally and no update is
+      //  needed. BUT: since it is not created, its record in the hash of removed
+      //  folders is not removed too - thus remove it explicitely here.
+      //  If the restored folder contained checked out files, then they are not
+      //  reverted back after the parent folder is updated, their checkouts
+      //  are undone separately.
+      final List<String> restoredFolders = new ArrayList<>();
+      for( FilePath folder : myFolders )
+      {
+        if( folder.getIOFile().exists() )
+          restoredFolders.add( folder.getIOFile().getAbsolutePath() );
+        else
+          host.removeFolderFromDeleted( VcsUtil.getCanonicalLocalPath( folder.getPath() ) );
+      }
+      undoCheckoutsInFolders( restoredFolders, errors );
+
+      VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance( project );
+      for( FilePath path : myDirtyPaths )
       {
-        updateFile( path.getPath(), errors );
+        mgr.fileDirty( path );
       }
     }
-    mgr.fileDirty( path );
   }
 
-  private void undocheckoutInFolder( String path, List<VcsException> errors )
+  private void undoCheckoutsInFolders( List<String> folders, List<VcsException> errors )
   {
-    String output = TransparentVcs.cleartoolOnLocalPathWithOutput( path, "lsch", "-short", "-r" );
+    if( folders.isEmpty() )
+      return;
+
+    final String workingDir = folders.get( 0 );
+    final List<String> options = new ArrayList<>( Arrays.asList( LIST_CHECKOUTS_CMD, SHORT_SWITCH, RECURSE_SWITCH ) );
+    options.addAll( folders );
+    String output = TransparentVcs.cleartoolOnLocalPathWithOutput( workingDir, ArrayUtil.toStringArray( options ) );
     TransparentVcs.LOG.info( output );
 
-    String[] lines = LineTokenizer.tokenize( output, false );
-    for( String line : lines )
+    final Set<String> checkouts = new LinkedHashSet<>();
+    for( String line : LineTokenizer.tokenize( output, false ) )
+    {
+      File file = new File( line.trim() );
+      if( !file.isAbsolute() )
+        file = new File( workingDir, line.trim() );
+      if( file.exists() )
+        checkouts.add( file.getAbsolutePath() );
+    }
+
+    for( Map.Entry<String, String> entry : undoCheckouts( checkouts ).entrySet() )
     {
-      File file = new File( path, line );
-      host.undoCheckoutFile( file, errors );
+      errors.add( createError( entry.getValue(), new File( entry.getKey() ) ) );
     }
   }
 
+  private Map<String, String> undoCheckouts( Collection<String> paths )
+  {
+    if( paths.isEmpty() )
+      return Collections.emptyMap();
+
+    UndoCheckoutMultipleProcessor processor = new UndoCheckoutMultipleProcessor( paths );
+    processor.execute();
+    CCaseCheckoutInfoCache.getInstance( project ).invalidate( paths );
+    return processor.getErrors();
+  }
+
+  private static VcsException createError( String message, File file )
+  {
+    VcsException e = new VcsException( message );
+    e.setVirtualFile( VcsUtil.getVirtualFile( file ) );
+    return e;
+  }
+
   public void rollbackModifiedWithoutCheckout(final List<VirtualFile> files, final List<VcsException> errors,
                                                             final RollbackProgressListener listener)
   {
+    List<String> paths = new ArrayList<>();
     for( VirtualFile file : files )
     {
       listener.accept(file);
-      updateFile( file.getPath(), errors );
+      paths.add( file.getPath() );
+    }
+    updateFiles( paths, errors );
+
+    for( VirtualFile file : files )
+    {
       file.refresh( true, true );
     }
   }
@@ -306,36 +407,49 @@ public class CCaseRollbackEnvironment implements RollbackEnvironment
   public void rollbackIfUnchanged(VirtualFile file) {
   }
 
-  private static void updateFile( String path, List<VcsException> errors )
+  /**
+   * Runs "update -overwrite -force", several paths per command. Lines of the
+   * output which do not report the progress become warnings.
+   */
+  private static void updateFiles( Collection<String> paths, List<VcsException> errors )
   {
-    try
+    final String[] files = ArrayUtil.toStringArray( paths );
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
     {
-      String err = TransparentVcs.cleartoolWithOutput( "update", "-overwrite", "-force", path );
-      if( err != null )
+      final List<String> options = new ArrayList<>( Arrays.asList( UPDATE_CMD, OVERWRITE_SWITCH, FORCE_SWITCH ) );
+      int cmdLineLen = UPDATE_CMD.length() + OVERWRITE_SWITCH.length() + FORCE_SWITCH.length() + 3;
+      while( currFileIndex < files.length && (options.size() == 3 || cmdLineLen < CheckinMultipleProcessor.CMDLINE_MAX_LENGTH) )
+      {
+        String path = files[ currFileIndex++ ];
+        options.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+
+      try
       {
-        String[] lines = LineTokenizer.tokenize( err, false );
-        for( String line : lines )
+        String err = TransparentVcs.cleartoolWithOutput( ArrayUtil.toStringArray( options ) );
+        if( err != null )
         {
-          if( !lineStartsWithKnownPrefix( line ) )
+          String[] lines = LineTokenizer.tokenize( err, false );
+          for( String line : lines )
           {
-            VcsException e = new VcsException( line );
-            e.setIsWarning( true );
-            errors.add( e );
+            if( !lineStartsWithKnownPrefix( line ) )
+            {
+              VcsException e = new VcsException( line );
+              e.setIsWarning( true );
+              errors.add( e );
+            }
           }
         }
       }
+      catch( ClearCaseException e ) {  errors.add( new VcsException( e ) );  }
     }
-    catch( ClearCaseException e ) {  errors.add( new VcsException( e ) );  }
   }
 
-  private static boolean isUnknownFileError( List<VcsException> errors )
+  private static boolean isUnknownFileError( String message )
   {
-    for( VcsException exc : errors )
-    {
-      if( exc.getMessage().toLowerCase().indexOf( FILE_NOT_IN_VOB_SIG ) != -1 )
-        return true;
-    }
-    return false;
+    return message.toLowerCase().contains( FILE_NOT_IN_VOB_SIG );
   }
 
   private static boolean lineStartsWithKnownPrefix( String line )
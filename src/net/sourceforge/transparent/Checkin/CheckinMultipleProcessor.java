@@ -0,0 +1,160 @@
+package net.sourceforge.transparent.Checkin;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CommandLineClearCase;
+import net.sourceforge.transparent.Runner;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.*;
+
+/**
+ * Checks in many files with one comment, several files per "ci" invocation.
+ * "ci" goes on with the rest of the files when one of them fails, so the
+ * result of every file is told apart in the combined output: it either is
+ * reported as checked in, or the error lines (up to the one naming the file)
+ * belong to it.
+ */
+public class CheckinMultipleProcessor
+{
+  @NonNls private static final String CHECKIN_COMMAND = "ci";
+  @NonNls private static final String COMMENT_SWITCH = "-c";
+  @NonNls private static final String NO_COMMENT_SWITCH = "-nc";
+  @NonNls private static final String IDENTICAL_SWITCH = "-identical";
+  @NonNls static final String CHECKED_IN_SIG = "Checked in \"";
+  @NonNls static final String ERROR_SIG = "Error:";
+
+  //  Windows limits the command line to 32K characters, stay well below.
+  static final int CMDLINE_MAX_LENGTH = 8000;
+
+  private final String[] files;
+  private final String comment;
+  private final boolean identical;
+  private final Map<String, String> myErrors = new LinkedHashMap<>();
+
+  public CheckinMultipleProcessor( Collection<String> paths, String comment, boolean identical )
+  {
+    files = ArrayUtil.toStringArray( paths );
+    this.comment = comment;
+    this.identical = identical;
+  }
+
+  public void execute()
+  {
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      final List<String> options = new ArrayList<>();
+      options.add( CHECKIN_COMMAND );
+      if( StringUtil.isNotEmpty( comment ) )
+      {
+        options.add( COMMENT_SWITCH );
+        options.add( CommandLineClearCase.quote( comment ) );
+      }
+      else
+      {
+        options.add( NO_COMMENT_SWITCH );
+      }
+      if( identical )
+        options.add( IDENTICAL_SWITCH );
+
+      int cmdLineLen = 0;
+      for( String option : options )
+      {
+        cmdLineLen += option.length() + 1;
+      }
+
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && (batch.isEmpty() || cmdLineLen < CMDLINE_MAX_LENGTH) )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+      options.addAll( batch );
+
+      final Runner runner = new Runner();
+      final String out = TransparentVcs.cleartoolWithOutput( runner, ArrayUtil.toStringArray( options ) );
+      myErrors.putAll( parseErrors( out, runner.isSuccessfull(), batch, CHECKED_IN_SIG ) );
+    }
+  }
+
+  /**
+   * @return error output for every file which was not checked in
+   */
+  public Map<String, String> getErrors()
+  {
+    return myErrors;
+  }
+
+  /**
+   * Attributes the output of a command run on several files to the files.
+   * A line starting with the success signature and naming a file tells that
+   * the file is done; an error line naming a file closes the error text which
+   * belongs to it. If the command failed, files it said nothing about get the
+   * whole output as their error.
+   *
+   * @return error text for every failed file
+   */
+  public static Map<String, String> parseErrors( final String out, final boolean successful, final List<String> paths,
+                                                 final String successSig )
+  {
+    final Map<String, String> pathsByKey = new HashMap<>();
+    for( String path : paths )
+    {
+      pathsByKey.put( toKey( path ), path );
+    }
+
+    final Map<String, String> errors = new LinkedHashMap<>();
+    final Set<String> reported = new HashSet<>();
+    final StringBuilder pending = new StringBuilder();
+    for( String line : LineTokenizer.tokenize( out, false ) )
+    {
+      final String path = findPath( line, pathsByKey );
+      if( path != null && line.startsWith( successSig ) )
+      {
+        reported.add( path );
+        pending.setLength( 0 );
+        continue;
+      }
+
+      if( pending.length() > 0 )
+        pending.append( '\n' );
+      pending.append( line );
+      if( path != null && line.contains( ERROR_SIG ) )
+      {
+        errors.put( path, pending.toString() );
+        reported.add( path );
+        pending.setLength( 0 );
+      }
+    }
+
+    if( !successful )
+    {
+      for( String path : paths )
+      {
+        if( !reported.contains( path ) )
+          errors.put( path, out );
+      }
+    }
+    return errors;
+  }
+
+  //  The file is the first quoted string in the line, e.g.
+  //  cleartool: Error: Unable to check in "C:\vob\src\Foo.java".
+  private static String findPath( final String line, final Map<String, String> pathsByKey )
+  {
+    final int start = line.indexOf( '"' );
+    final int end = start == -1 ? -1 : line.indexOf( '"', start + 1 );
+    return end == -1 ? null : pathsByKey.get( toKey( line.substring( start + 1, end ) ) );
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+}
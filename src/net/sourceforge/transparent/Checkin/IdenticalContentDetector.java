@@ -0,0 +1,108 @@
+package net.sourceforge.transparent.Checkin;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.ChangeManagement.PredecessorMultipleProcessor;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Finds checked out files whose content equals the content of the version
+ * they were checked out from, without a "ci" attempt for each of them.
+ *
+ * Predecessors are resolved with one batched "describe"; only predecessors
+ * readable locally (from a dynamic view or the content store) are compared,
+ * no content is fetched for this. Files are compared by length first and
+ * then block by block over buffered streams, which stops at the first
+ * difference. Files are never memory mapped: the compared files go to
+ * "ci" or "unco" right away, which fail on Windows while a mapping is open.
+ */
+public class IdenticalContentDetector
+{
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private IdenticalContentDetector() {}
+
+  /**
+   * @param paths absolute paths of checked out files
+   * @return the paths whose content is identical to their predecessor
+   */
+  @NotNull
+  public static Set<String> findIdentical( Project project, Collection<String> paths )
+  {
+    final Set<String> identical = new LinkedHashSet<>();
+    if( paths.isEmpty() )
+      return identical;
+
+    final PredecessorMultipleProcessor processor = new PredecessorMultipleProcessor( new ArrayList<>( paths ) );
+    try
+    {
+      processor.execute();
+    }
+    catch( VcsException e )
+    {
+      TransparentVcs.LOG.info( "Can not resolve predecessors, every file goes to checkin", e );
+      return identical;
+    }
+
+    CCaseContentStore.resolveOids( paths );
+    final CCaseContentStore store = CCaseContentStore.getInstance();
+    for( String path : paths )
+    {
+      final String predecessor = processor.getPredecessor( path );
+      if( predecessor == null )
+        continue;
+
+      final File baseFile = store.getCachedContentFile( project, path, predecessor );
+      if( baseFile == null )
+        continue;
+      try
+      {
+        if( isSameContent( new File( path ), baseFile ) )
+          identical.add( path );
+      }
+      finally
+      {
+        store.release( baseFile );
+      }
+    }
+    return identical;
+  }
+
+  public static boolean isSameContent( final File file1, final File file2 )
+  {
+    final long length = file1.length();
+    if( length != file2.length() || !file1.isFile() || !file2.isFile() )
+      return false;
+    if( length == 0 )
+      return true;
+
+    final byte[] buffer1 = new byte[ BUFFER_SIZE ];
+    final byte[] buffer2 = new byte[ BUFFER_SIZE ];
+    try( DataInputStream in1 = new DataInputStream( new BufferedInputStream( new FileInputStream( file1 ), BUFFER_SIZE ) );
+         DataInputStream in2 = new DataInputStream( new BufferedInputStream( new FileInputStream( file2 ), BUFFER_SIZE ) ) )
+    {
+      for( long position = 0; position < length; position += BUFFER_SIZE )
+      {
+        final int size = (int)Math.min( BUFFER_SIZE, length - position );
+        in1.readFully( buffer1, 0, size );
+        in2.readFully( buffer2, 0, size );
+        for( int i = 0; i < size; i++ )
+        {
+          if( buffer1[ i ] != buffer2[ i ] )
+            return false;
+        }
+      }
+      return true;
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.debug( "Can not compare " + file1.getPath() + " with " + file2.getPath(), e );
+      return false;
+    }
+  }
+}
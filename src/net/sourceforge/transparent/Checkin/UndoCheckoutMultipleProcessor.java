@@ -0,0 +1,61 @@
+package net.sourceforge.transparent.Checkin;
+
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.Runner;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.*;
+
+/**
+ * Cancels checkouts of many files at once with "unco -rm", several files
+ * per invocation. Errors are attributed to the files from the combined
+ * output, as for "ci".
+ */
+public class UndoCheckoutMultipleProcessor
+{
+  @NonNls private static final String UNCO_COMMAND = "unco";
+  @NonNls private static final String REMOVE_SWITCH = "-rm";
+  @NonNls static final String CANCELLED_SIG = "Checkout cancelled for \"";
+
+  private final String[] files;
+  private final Map<String, String> myErrors = new LinkedHashMap<>();
+
+  public UndoCheckoutMultipleProcessor( Collection<String> paths )
+  {
+    files = ArrayUtil.toStringArray( paths );
+  }
+
+  public void execute()
+  {
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      final List<String> options = new ArrayList<>();
+      options.add( UNCO_COMMAND );
+      options.add( REMOVE_SWITCH );
+      int cmdLineLen = UNCO_COMMAND.length() + REMOVE_SWITCH.length() + 2;
+
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && (batch.isEmpty() || cmdLineLen < CheckinMultipleProcessor.CMDLINE_MAX_LENGTH) )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+      options.addAll( batch );
+
+      final Runner runner = new Runner();
+      final String out = TransparentVcs.cleartoolWithOutput( runner, ArrayUtil.toStringArray( options ) );
+      myErrors.putAll( CheckinMultipleProcessor.parseErrors( out, runner.isSuccessfull(), batch, CANCELLED_SIG ) );
+    }
+  }
+
+  /**
+   * @return error output for every file whose checkout was not cancelled
+   */
+  public Map<String, String> getErrors()
+  {
+    return myErrors;
+  }
+}
@@ -0,0 +1,207 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.Checkin.CheckinMultipleProcessor;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Reads the reservation and the comment of the checkouts of many files with
+ * one "lsco" per batch of files; the batches are spread over the sessions
+ * of the cleartool executor. Every checkout is printed as
+ * "name TAB reserved|unreserved TAB comment", the comment may span several
+ * lines.
+ */
+public class CheckoutInfoMultipleProcessor
+{
+  @NonNls private static final String LIST_CHECKOUTS_COMMAND = "lsco";
+  @NonNls private static final String CURRENT_VIEW_SWITCH = "-cview";
+  @NonNls private static final String DIRECTORY_SWITCH = "-directory";
+  @NonNls private static final String FMT_SWITCH = "-fmt";
+  @NonNls private static final String FORMAT_SIG = "%n\t%Rf\t%c\n";
+  @NonNls private static final String ERROR_SIG = "cleartool: ";
+  @NonNls private static final String VERSION_DELIM = "@@";
+  @NonNls private static final String RESERVED_SIG = "reserved";
+  @NonNls private static final String UNRESERVED_SIG = "unreserved";
+
+  public static class CheckoutInfo
+  {
+    private final CheckedOutStatus myStatus;
+    private final String myComment;
+
+    CheckoutInfo( final CheckedOutStatus status, final String comment )
+    {
+      myStatus = status;
+      myComment = comment;
+    }
+
+    public CheckedOutStatus getStatus()  {  return myStatus;   }
+    public String getComment()           {  return myComment;  }
+  }
+
+  public static final CheckoutInfo NOT_CHECKED_OUT = new CheckoutInfo( CheckedOutStatus.NOT_CHECKED_OUT, "" );
+
+  private final String[] files;
+  private final Map<String, CheckoutInfo> myInfos = new HashMap<>();
+
+  public CheckoutInfoMultipleProcessor( Collection<String> paths )
+  {
+    files = ArrayUtil.toStringArray( paths );
+  }
+
+  public void execute() throws VcsException
+  {
+    final String[] options = { LIST_CHECKOUTS_COMMAND, CURRENT_VIEW_SWITCH, DIRECTORY_SWITCH, FMT_SWITCH, FORMAT_SIG };
+    int optionsLen = 0;
+    for( String option : options )
+    {
+      optionsLen += option.length() + 1;
+    }
+
+    //  Fill every session rather than the command line of the first one.
+    final int batchSize = (files.length + CleartoolExecutor.MAX_SESSIONS - 1) / CleartoolExecutor.MAX_SESSIONS;
+    final List<BatchTask> tasks = new ArrayList<>();
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      int cmdLineLen = optionsLen;
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && (batch.isEmpty() || (cmdLineLen < CheckinMultipleProcessor.CMDLINE_MAX_LENGTH && batch.size() < batchSize)) )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+      tasks.add( new BatchTask( options, batch ) );
+    }
+
+    for( BatchTask task : CleartoolExecutor.invokeAll( tasks ) )
+    {
+      myInfos.putAll( task.myInfos );
+    }
+  }
+
+  /**
+   * @return checkout of the file in the current view, {@link #NOT_CHECKED_OUT}
+   *         if it is not checked out, null if its batch told nothing (e.g.
+   *         the command did not run at all)
+   */
+  @Nullable
+  public CheckoutInfo getInfo( String path )
+  {
+    return myInfos.get( path );
+  }
+
+  private static String toElementName( final String name )
+  {
+    final int delimIndex = name.indexOf( VERSION_DELIM );
+    return delimIndex == -1 ? name : name.substring( 0, delimIndex );
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  /**
+   * Reads the output of "lsco" run on the paths with {@link #FORMAT_SIG};
+   * lines which do not start a checkout continue the previous comment.
+   */
+  public static Map<String, CheckoutInfo> parseCheckouts( final String out, final boolean successful, final Collection<String> paths )
+  {
+    final Map<String, String> pathsByKey = new HashMap<>();
+    for( String path : paths )
+    {
+      pathsByKey.put( toKey( path ), path );
+    }
+
+    final Map<String, CheckoutInfo> infos = new HashMap<>();
+    String current = null;
+    CheckedOutStatus currentStatus = null;
+    StringBuilder currentComment = null;
+    for( String line : LineTokenizer.tokenize( out, false ) )
+    {
+      final String[] fields = line.split( "\t", 3 );
+      final String path = fields.length == 3 ? pathsByKey.get( toKey( toElementName( fields[ 0 ] ) ) ) : null;
+      final CheckedOutStatus status = fields.length == 3 ? parseStatus( fields[ 1 ] ) : null;
+      if( path != null && status != null )
+      {
+        addInfo( infos, current, currentStatus, currentComment );
+        current = path;
+        currentStatus = status;
+        currentComment = new StringBuilder( fields[ 2 ] );
+      }
+      else if( line.startsWith( ERROR_SIG ) )
+      {
+        //  E.g. "Not a vob object" for a view-private or hijacked file;
+        //  such files are just not checked out.
+        addInfo( infos, current, currentStatus, currentComment );
+        current = null;
+      }
+      else if( current != null )
+      {
+        currentComment.append( '\n' ).append( line );
+      }
+    }
+    addInfo( infos, current, currentStatus, currentComment );
+
+    //  Whatever was not listed is not checked out in this view, unless the
+    //  command could not ask the server at all.
+    if( successful || (out.contains( ERROR_SIG ) && !TransparentVcs.isServerDownMessage( out )) )
+    {
+      for( String path : paths )
+      {
+        if( !infos.containsKey( path ) )
+          infos.put( path, NOT_CHECKED_OUT );
+      }
+    }
+    return infos;
+  }
+
+  private static void addInfo( final Map<String, CheckoutInfo> infos, @Nullable final String path,
+                               final CheckedOutStatus status, final StringBuilder comment )
+  {
+    if( path != null )
+      infos.put( path, new CheckoutInfo( status, StringUtil.trimTrailing( comment.toString(), '\n' ) ) );
+  }
+
+  @Nullable
+  private static CheckedOutStatus parseStatus( final String status )
+  {
+    if( status.equalsIgnoreCase( RESERVED_SIG ) )
+      return CheckedOutStatus.RESERVED;
+    if( status.equalsIgnoreCase( UNRESERVED_SIG ) )
+      return CheckedOutStatus.UNRESERVED;
+    return null;
+  }
+
+  private static class BatchTask implements CleartoolExecutor.Task<BatchTask>
+  {
+    private final List<String> myOptions;
+    private final List<String> myPaths;
+    private Map<String, CheckoutInfo> myInfos;
+
+    BatchTask( final String[] options, final List<String> paths )
+    {
+      myOptions = new ArrayList<>( Arrays.asList( options ) );
+      myOptions.addAll( paths );
+      myPaths = paths;
+    }
+
+    @Override
+    public BatchTask run()
+    {
+      final Runner runner = new Runner();
+      final String out = TransparentVcs.cleartoolWithOutput( runner, ArrayUtil.toStringArray( myOptions ) );
+      myInfos = parseCheckouts( out, runner.isSuccessfull(), myPaths );
+      return this;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.Checkin.CheckinMultipleProcessor;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Checks out many files with one comment, several files per "co" command;
+ * the batches are spread over the sessions of the cleartool executor. Every
+ * "Checked out" line of the combined output may be followed by the activity
+ * the version was attached to (in UCM views), it is kept for the file.
+ */
+public class CheckoutMultipleProcessor
+{
+  @NonNls private static final String CHECKOUT_COMMAND = "co";
+  @NonNls private static final String COMMENT_SWITCH = "-c";
+  @NonNls private static final String NO_COMMENT_SWITCH = "-nc";
+  @NonNls private static final String RESERVED_SWITCH = "-reserved";
+  @NonNls private static final String UNRESERVED_SWITCH = "-unreserved";
+  @NonNls private static final String NO_QUERY_SWITCH = "-nq";
+  @NonNls private static final String CHECKED_OUT_SIG = "Checked out \"";
+  @NonNls private static final String ACTIVITY_SIG = "activity:";
+
+  private static final int CMDLINE_MAX_LENGTH = 8000;
+
+  private final String[] files;
+  private final String comment;
+  private final boolean reserved;
+  private final Map<String, String> myErrors = new LinkedHashMap<>();
+  private final Map<String, String> myActivities = new HashMap<>();
+
+  public CheckoutMultipleProcessor( Collection<String> paths, String comment, boolean reserved )
+  {
+    files = ArrayUtil.toStringArray( paths );
+    this.comment = comment;
+    this.reserved = reserved;
+  }
+
+  public void execute() throws VcsException
+  {
+    final List<String> options = new ArrayList<>();
+    options.add( CHECKOUT_COMMAND );
+    if( StringUtil.isNotEmpty( comment ) )
+    {
+      options.add( COMMENT_SWITCH );
+      options.add( CommandLineClearCase.quote( comment ) );
+    }
+    else
+    {
+      options.add( NO_COMMENT_SWITCH );
+    }
+    options.add( reserved ? RESERVED_SWITCH : UNRESERVED_SWITCH );
+    options.add( NO_QUERY_SWITCH );
+
+    int optionsLen = 0;
+    for( String option : options )
+    {
+      optionsLen += option.length() + 1;
+    }
+
+    //  Fill every session rather than the command line of the first one.
+    final int batchSize = (files.length + CleartoolExecutor.MAX_SESSIONS - 1) / CleartoolExecutor.MAX_SESSIONS;
+    final List<BatchTask> tasks = new ArrayList<>();
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      int cmdLineLen = optionsLen;
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && (batch.isEmpty() || (cmdLineLen < CMDLINE_MAX_LENGTH && batch.size() < batchSize)) )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 3;
+      }
+      tasks.add( new BatchTask( options, batch ) );
+    }
+
+    for( BatchTask task : CleartoolExecutor.invokeAll( tasks ) )
+    {
+      myErrors.putAll( task.myErrors );
+      myActivities.putAll( task.myActivities );
+    }
+  }
+
+  /**
+   * @return error output for every file which was not checked out
+   */
+  public Map<String, String> getErrors()
+  {
+    return myErrors;
+  }
+
+  /**
+   * @return activity the checked out version of the file is attached to,
+   *         null for non-UCM views
+   */
+  @Nullable
+  public String getActivity( String path )
+  {
+    return myActivities.get( path );
+  }
+
+  private static String toKey( String path )
+  {
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  private static class BatchTask implements CleartoolExecutor.Task<BatchTask>
+  {
+    private final List<String> myOptions;
+    private final List<String> myPaths;
+    private Map<String, String> myErrors;
+    private final Map<String, String> myActivities = new HashMap<>();
+
+    BatchTask( final List<String> options, final List<String> paths )
+    {
+      myOptions = new ArrayList<>( options );
+      myOptions.addAll( paths );
+      myPaths = paths;
+    }
+
+    @Override
+    public BatchTask run()
+    {
+      final Runner runner = new Runner();
+      final String out = TransparentVcs.cleartoolWithOutput( runner, ArrayUtil.toStringArray( myOptions ) );
+      myErrors = CheckinMultipleProcessor.parseErrors( out, runner.isSuccessfull(), myPaths, CHECKED_OUT_SIG );
+
+      final Map<String, String> pathsByKey = new HashMap<>();
+      for( String path : myPaths )
+      {
+        pathsByKey.put( toKey( path ), path );
+      }
+
+      //  Checked out "<file>" from version "<version>".
+      //    Attached activities:
+      //      activity:<activity>@<pvob>  "<headline>"
+      String current = null;
+      for( String line : LineTokenizer.tokenize( out, false ) )
+      {
+        if( line.startsWith( CHECKED_OUT_SIG ) )
+        {
+          final int end = line.indexOf( '"', CHECKED_OUT_SIG.length() );
+          current = end == -1 ? null : pathsByKey.get( toKey( line.substring( CHECKED_OUT_SIG.length(), end ) ) );
+        }
+        else if( current != null && line.trim().startsWith( ACTIVITY_SIG ) )
+        {
+          //  As parsed for a single file: the headline in quotes is the
+          //  name of the change list.
+          String activity = line.trim();
+          final int quoteIndex = activity.indexOf( '"' );
+          if( quoteIndex != -1 )
+            activity = activity.substring( quoteIndex + 1, activity.length() - 1 );
+          myActivities.put( current, activity );
+          current = null;
+        }
+      }
+      return this;
+    }
+  }
+}
@@ -67,6 +67,7 @@ public final class ClearCaseOptionsTopHitProvider extends OptionsTopHitProvider
           });
           options.add(option(config, "ClearCase: Synchronize activities on refresh", "synchActivitiesOnRefresh"));
           options.add(option(config, "ClearCase: Use \"-identical\" switch during check in", "useIdenticalSwitch"));
+          options.add(option(config, "ClearCase: Annotate opened files in background", "preAnnotateOpenedFiles"));
           options.add(option(config, "ClearCase: Restrict history records by " + config.getHistoryRevisionsMargin(), "isHistoryResticted"));
           return Collections.unmodifiableCollection(options);
         }
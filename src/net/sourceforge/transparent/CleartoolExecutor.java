@@ -0,0 +1,145 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Bounded pool for running several cleartool sessions at once. Every
+ * cleartool process talks to the VOB and registry servers, so the number of
+ * simultaneous sessions is kept small.
+ *
+ * Speculative work (prefetching, annotating in the background) goes to a
+ * separate pool of {@link #BACKGROUND_SESSIONS} low priority threads, so it
+ * never keeps the interactive commands waiting for a session.
+ */
+public class CleartoolExecutor
+{
+  @NonNls private static final String EXECUTOR_NAME = "ClearCase cleartool";
+  @NonNls private static final String BACKGROUND_EXECUTOR_NAME = "ClearCase cleartool (background)";
+  public static final int MAX_SESSIONS = Math.max( 2, Math.min( 4, Runtime.getRuntime().availableProcessors() ) );
+  public static final int BACKGROUND_SESSIONS = 1;
+
+  private static final ExecutorService ourExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor( EXECUTOR_NAME, MAX_SESSIONS );
+  private static final ExecutorService ourBackgroundExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor( BACKGROUND_EXECUTOR_NAME, BACKGROUND_SESSIONS );
+
+  //  Tasks which themselves split work into parallel parts run the parts
+  //  inline, otherwise they could wait for the pool they are occupying.
+  private static final ThreadLocal<Boolean> ourInsidePool = ThreadLocal.withInitial( () -> Boolean.FALSE );
+
+  private CleartoolExecutor() {}
+
+  public interface Task<T>
+  {
+    T run() throws VcsException;
+  }
+
+  public static <T> Future<T> submit( final Task<T> task )
+  {
+    return ourExecutor.submit( wrap( task ) );
+  }
+
+  /**
+   * Runs the task on the background pool with the lowest thread priority.
+   */
+  public static <T> Future<T> submitBackground( final Task<T> task )
+  {
+    final Callable<T> callable = wrap( task );
+    return ourBackgroundExecutor.submit( () -> {
+      final Thread thread = Thread.currentThread();
+      final int priority = thread.getPriority();
+      thread.setPriority( Thread.MIN_PRIORITY );
+      try
+      {
+        return callable.call();
+      }
+      finally
+      {
+        thread.setPriority( priority );
+      }
+    } );
+  }
+
+  /**
+   * Runs all tasks on the pool and waits for their results, which are
+   * returned in the order of the tasks. A single task (or a call made from
+   * the pool itself) is run in the calling thread.
+   */
+  public static <T> List<T> invokeAll( final List<? extends Task<T>> tasks ) throws VcsException
+  {
+    final List<T> results = new ArrayList<>( tasks.size() );
+    if( tasks.size() < 2 || ourInsidePool.get() )
+    {
+      for( Task<T> task : tasks )
+      {
+        results.add( task.run() );
+      }
+      return results;
+    }
+
+    final List<Future<T>> futures = new ArrayList<>( tasks.size() );
+    for( Task<T> task : tasks )
+    {
+      futures.add( submit( task ) );
+    }
+    try
+    {
+      for( Future<T> future : futures )
+      {
+        results.add( getResult( future ) );
+      }
+    }
+    finally
+    {
+      for( Future<T> future : futures )
+      {
+        future.cancel( false );
+      }
+    }
+    return results;
+  }
+
+  public static <T> T getResult( final Future<T> future ) throws VcsException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException( e );
+    }
+    catch( ExecutionException e )
+    {
+      final Throwable cause = e.getCause();
+      if( cause instanceof VcsException )
+        throw (VcsException)cause;
+      if( cause instanceof RuntimeException )
+        throw (RuntimeException)cause;
+      throw new ClearCaseException( String.valueOf( cause ) );
+    }
+  }
+
+  private static <T> Callable<T> wrap( final Task<T> task )
+  {
+    return () -> {
+      ourInsidePool.set( Boolean.TRUE );
+      try
+      {
+        return task.run();
+      }
+      finally
+      {
+        ourInsidePool.set( Boolean.FALSE );
+      }
+    };
+  }
+}
@@ -35,11 +35,13 @@ public class CommandLineClearCase implements ClearCase
   public void setHost( TransparentVcs host ) { this.host = host;  }
 
   public void undoCheckOut( File file ) {
+    CCaseCheckoutInfoCache.getInstance( host.getProject() ).invalidate( file.getAbsolutePath() );
     cleartool( new String[] { "unco", "-rm", file.getAbsolutePath() } );
   }
 
   public void checkIn( File file, String comment )
   {
+    CCaseCheckoutInfoCache.getInstance( host.getProject() ).invalidate( file.getAbsolutePath() );
     if( host.getConfig().useIdenticalSwitch )
     {
       if( StringUtil.isNotEmpty( comment ) )
@@ -97,6 +99,8 @@ public class CommandLineClearCase implements ClearCase
 
     params = commandLine.toArray(new String[commandLine.size()]);
 
+    CCaseCheckoutInfoCache.getInstance( host.getProject() ).invalidate(file.getAbsolutePath());
+
     Runner runner = cleartool( params, true );
     if( !runner.isSuccessfull() ) {
       boolean isCheckedOut = false;
@@ -250,13 +254,13 @@ public class CommandLineClearCase implements ClearCase
 
   public CheckedOutStatus getCheckedOutStatus( File file )
   {
-    return TransparentVcs.getCheckedOutStatus( file );
+    return host.getCheckedOutStatus( file );
   }
 
   @Nullable
   public String getCheckoutComment( File file )
   {
-    return TransparentVcs.getCheckoutComment( file );
+    return host.getCheckoutComment( file );
   }
 
   public static String quote(String str) {
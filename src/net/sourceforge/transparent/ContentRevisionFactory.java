@@ -1,55 +1,178 @@
 package net.sourceforge.transparent;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.*;
-import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.ChangeManagement.CCaseContentRevision;
+import net.sourceforge.transparent.ChangeManagement.PredecessorMultipleProcessor;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-public class ContentRevisionFactory
+/**
+ * Per-project cache of base revisions of changed files.
+ *
+ * Revisions are kept in a map sorted by path, so all revisions under a
+ * folder form a single range of keys. Loaded contents are held softly and,
+ * besides, are dropped in the order of loading once their total size exceeds
+ * the budget; revisions themselves stay and reread the content (from the
+ * content store) when it is needed again.
+ */
+public class ContentRevisionFactory implements Disposable
 {
-  private static final VFSKeysListener listener;
-  private static final HashMap<FilePath, CCaseContentRevision> cachedRevisions;
+  private static final long CONTENT_BUDGET = 32L * 1024 * 1024;
 
-  static
+  private final Project myProject;
+  private final ConcurrentNavigableMap<String, CCaseContentRevision> myRevisions = new ConcurrentSkipListMap<>();
+
+  //  Revisions with loaded content -> content size, the oldest first.
+  private final LinkedHashMap<CCaseContentRevision, Integer> myLoaded = new LinkedHashMap<>();
+  private long myLoadedSize;
+
+  private final Object myResolveLock = new Object();
+
+  public ContentRevisionFactory( Project project )
   {
-    cachedRevisions = new HashMap<>();
-    listener = new VFSKeysListener();
-    LocalFileSystem.getInstance().addVirtualFileListener( listener );
+    myProject = project;
+    VirtualFileManager.getInstance().addVirtualFileListener( new VFSKeysListener(), this );
   }
 
-  public static void detachListeners()
+  public static ContentRevisionFactory getInstance( Project project )
   {
-    LocalFileSystem.getInstance().removeVirtualFileListener( listener );
+    return ServiceManager.getService( project, ContentRevisionFactory.class );
   }
 
-  private ContentRevisionFactory() {}
-
   public static CCaseContentRevision getRevision( @NotNull FilePath path, Project project )
   {
-    CCaseContentRevision revision = cachedRevisions.get( path );
-    if( revision == null )
+    return getInstance( project ).getRevision( path );
+  }
+
+  public CCaseContentRevision getRevision( @NotNull FilePath path )
+  {
+    final String key = toKey( path.getPath() );
+    final CCaseContentRevision revision = myRevisions.computeIfAbsent( key, k -> new CCaseContentRevision( path, myProject, null, this ) );
+    if( revision.getFile().equals( path ) )
+      return revision;
+
+    //  The same path was asked for as a file and as a folder.
+    final CCaseContentRevision created = new CCaseContentRevision( path, myProject, null, this );
+    final CCaseContentRevision replaced = myRevisions.put( key, created );
+    if( replaced != null )
+      forget( replaced );
+    return created;
+  }
+
+  /**
+   * Drops the cached revision of the file and, if it is a folder, of all
+   * files under it.
+   */
+  public void clearCacheForFile( String file )
+  {
+    final String key = toKey( file );
+    final CCaseContentRevision revision = myRevisions.remove( key );
+    if( revision != null )
+      forget( revision );
+
+    //  '0' follows '/', so the range holds exactly the paths under the folder.
+    final Map<String, CCaseContentRevision> subtree = myRevisions.subMap( key + '/', key + '0' );
+    for( Iterator<CCaseContentRevision> it = subtree.values().iterator(); it.hasNext(); )
+    {
+      forget( it.next() );
+      it.remove();
+    }
+  }
+
+  /**
+   * Resolves versions of all cached revisions which do not know them yet
+   * with batched cleartool requests.
+   */
+  public void resolvePendingVersions() throws VcsException
+  {
+    synchronized( myResolveLock )
+    {
+      final List<CCaseContentRevision> pending = new ArrayList<>();
+      for( CCaseContentRevision revision : myRevisions.values() )
+      {
+        if( revision.isVersionPending() )
+          pending.add( revision );
+      }
+      if( !pending.isEmpty() )
+        PredecessorMultipleProcessor.resolve( myProject, pending );
+    }
+  }
+
+  public void clear()
+  {
+    myRevisions.clear();
+    synchronized( myLoaded )
     {
-      revision = new CCaseContentRevision( path, project );
-      cachedRevisions.put( path, revision );
+      for( CCaseContentRevision revision : myLoaded.keySet() )
+      {
+        revision.releaseContent();
+      }
+      myLoaded.clear();
+      myLoadedSize = 0;
+    }
+  }
+
+  @Override
+  public void dispose()
+  {
+    clear();
+  }
+
+  /**
+   * Called by the revision of this cache when its content is read.
+   */
+  public void contentLoaded( CCaseContentRevision revision, int size )
+  {
+    synchronized( myLoaded )
+    {
+      final Integer oldSize = myLoaded.remove( revision );
+      if( oldSize != null )
+        myLoadedSize -= oldSize;
+      myLoaded.put( revision, size );
+      myLoadedSize += size;
+
+      final Iterator<Map.Entry<CCaseContentRevision, Integer>> it = myLoaded.entrySet().iterator();
+      while( myLoadedSize > CONTENT_BUDGET && it.hasNext() )
+      {
+        final Map.Entry<CCaseContentRevision, Integer> eldest = it.next();
+        if( eldest.getKey() == revision )
+          break;
+        it.remove();
+        myLoadedSize -= eldest.getValue();
+        eldest.getKey().releaseContent();
+      }
     }
-    return revision;
   }
 
-  public static void clearCacheForFile( String file )
+  private void forget( CCaseContentRevision revision )
   {
-    FilePath path = VcsUtil.getFilePath( file );
-    cachedRevisions.remove( path );
+    synchronized( myLoaded )
+    {
+      final Integer size = myLoaded.remove( revision );
+      if( size != null )
+        myLoadedSize -= size;
+    }
   }
 
-  private static class VFSKeysListener implements VirtualFileListener {
-    public VFSKeysListener() {}
+  private static String toKey( String path )
+  {
+    String key = FileUtil.toSystemIndependentName( path );
+    if( key.length() > 1 && key.endsWith( "/" ) )
+      key = key.substring( 0, key.length() - 1 );
+    return SystemInfo.isFileSystemCaseSensitive ? key : key.toLowerCase();
+  }
 
+  private class VFSKeysListener implements VirtualFileListener {
     @Override
     public void beforeFileMovement(@NotNull VirtualFileMoveEvent e )
     {
@@ -75,27 +198,12 @@ public class ContentRevisionFactory
       }
     }
 
-    private static void analyzeEvent( String filePath )
+    //  If the given path is a folder, cached revisions for ALL files under
+    //  that folder are removed too since all of them will change VirtualFile
+    //  value inside their FilePath keys.
+    private void analyzeEvent( String filePath )
     {
-      FilePath path = VcsUtil.getFilePath( filePath );
-      CCaseContentRevision revision = cachedRevisions.get( path );
-      if( revision != null )
-      {
-        cachedRevisions.remove( path );
-      }
-
-      //  If the given path is a folder, we need to remove cached revisions
-      //  for ALL files under that folder since all of them will change
-      //  VirtualFile value inside their FilePath keys.
-      if( path.isDirectory() )
-      {
-        List<FilePath> keys = new ArrayList<>(cachedRevisions.keySet());
-        for( FilePath file : keys )
-        {
-          if( file.isUnder( path, false ) )
-            cachedRevisions.remove( file );
-        }
-      }
+      clearCacheForFile( filePath );
     }
   }
 }
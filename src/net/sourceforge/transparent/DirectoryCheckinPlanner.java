@@ -0,0 +1,248 @@
+package net.sourceforge.transparent;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import net.sourceforge.transparent.exceptions.ClearCaseException;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Plans operations which change directories (mkelem, rmname, mv) so that a
+ * directory is checked out and checked in once for all operations in it,
+ * rather than once per element.
+ *
+ * Directories touched by one operation (e.g. both parents of a move) or
+ * nested in each other depend on each other and fall into one group. A group
+ * checks out its directories, runs its operations - the deepest elements
+ * first, otherwise in the order they were planned - and checks the
+ * directories in. Groups share no directories, so they run in parallel on
+ * the cleartool executor. An operation whose directory can not be checked
+ * out is not run at all.
+ */
+public class DirectoryCheckinPlanner
+{
+  @NonNls private static final String STANDALONE_PREFIX = "\0";
+
+  private final TransparentVcs host;
+  private final String comment;
+  private final List<Operation> myOperations = new ArrayList<>();
+
+  /**
+   * Body of an operation; it runs when its directories are checked out.
+   */
+  public interface Action
+  {
+    void run( List<VcsException> errors );
+  }
+
+  private static class Operation
+  {
+    private final File target;
+    private final String description;
+    private final Action action;
+    private final List<File> directories;
+    private final int depth;
+
+    Operation( File target, String description, Action action, List<File> directories )
+    {
+      this.target = target;
+      this.description = description;
+      this.action = action;
+      this.directories = directories;
+      depth = FileUtil.toSystemIndependentName( target.getAbsolutePath() ).split( "/" ).length;
+    }
+  }
+
+  public DirectoryCheckinPlanner( TransparentVcs host, String comment )
+  {
+    this.host = host;
+    this.comment = comment;
+  }
+
+  /**
+   * @param target      element the operation is done on, errors are attributed to it
+   * @param description added to the comment of the directories' versions
+   * @param directories directories which the operation changes
+   */
+  public void add( File target, String description, Action action, File... directories )
+  {
+    myOperations.add( new Operation( target, description, action, Arrays.asList( directories ) ) );
+  }
+
+  public boolean isEmpty()
+  {
+    return myOperations.isEmpty();
+  }
+
+  public void execute( List<VcsException> errors )
+  {
+    if( myOperations.isEmpty() )
+      return;
+
+    final List<GroupTask> tasks = new ArrayList<>();
+    for( List<Operation> group : groupOperations() )
+    {
+      tasks.add( new GroupTask( group ) );
+    }
+    myOperations.clear();
+
+    try
+    {
+      for( List<VcsException> groupErrors : CleartoolExecutor.invokeAll( tasks ) )
+      {
+        errors.addAll( groupErrors );
+      }
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+    }
+  }
+
+  private List<List<Operation>> groupOperations()
+  {
+    final Map<String, String> roots = new HashMap<>();
+    for( Operation operation : myOperations )
+    {
+      String first = null;
+      for( File directory : operation.directories )
+      {
+        final String key = toKey( directory );
+        roots.putIfAbsent( key, key );
+        if( first == null )
+          first = key;
+        else
+          union( roots, first, key );
+      }
+    }
+
+    //  A directory nested into another one is changed together with it
+    //  (e.g. removed elements of a folder which is itself removed).
+    for( String key : new ArrayList<>( roots.keySet() ) )
+    {
+      for( File parent = new File( key ).getParentFile(); parent != null; parent = parent.getParentFile() )
+      {
+        final String parentKey = toKey( parent );
+        if( roots.containsKey( parentKey ) )
+        {
+          union( roots, parentKey, key );
+          break;
+        }
+      }
+    }
+
+    final Map<String, List<Operation>> groups = new LinkedHashMap<>();
+    for( Operation operation : myOperations )
+    {
+      final String group = operation.directories.isEmpty()
+                           ? STANDALONE_PREFIX + operation.target.getAbsolutePath()
+                           : find( roots, toKey( operation.directories.get( 0 ) ) );
+      groups.computeIfAbsent( group, k -> new ArrayList<>() ).add( operation );
+    }
+    return new ArrayList<>( groups.values() );
+  }
+
+  private static String find( final Map<String, String> roots, String key )
+  {
+    String root = roots.get( key );
+    while( !root.equals( key ) )
+    {
+      final String next = roots.get( root );
+      roots.put( key, next );
+      key = root;
+      root = next;
+    }
+    return root;
+  }
+
+  private static void union( final Map<String, String> roots, final String key1, final String key2 )
+  {
+    final String root1 = find( roots, key1 );
+    final String root2 = find( roots, key2 );
+    if( !root1.equals( root2 ) )
+      roots.put( root2, root1 );
+  }
+
+  private static String toKey( final File directory )
+  {
+    final String path = directory.getAbsolutePath();
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  private class GroupTask implements CleartoolExecutor.Task<List<VcsException>>
+  {
+    private final List<Operation> myGroup;
+
+    GroupTask( final List<Operation> group )
+    {
+      myGroup = new ArrayList<>( group );
+      myGroup.sort( ( o1, o2 ) -> o2.depth - o1.depth );
+    }
+
+    @Override
+    public List<VcsException> run()
+    {
+      final List<VcsException> errors = new ArrayList<>();
+
+      //  Every directory version gets the descriptions of all its operations.
+      final Map<String, File> directories = new LinkedHashMap<>();
+      final Map<String, String> comments = new HashMap<>();
+      for( Operation operation : myGroup )
+      {
+        for( File directory : operation.directories )
+        {
+          final String key = toKey( directory );
+          directories.putIfAbsent( key, directory );
+          comments.put( key, TransparentVcs.addToComment( comments.getOrDefault( key, comment ), operation.description ) );
+        }
+      }
+
+      final Set<String> checkedOut = new LinkedHashSet<>();
+      for( Map.Entry<String, File> entry : directories.entrySet() )
+      {
+        final VcsException error = host.tryToCheckout( entry.getValue(), comments.get( entry.getKey() ), false );
+        if( error != null )
+          errors.add( error );
+        else
+          checkedOut.add( entry.getKey() );
+      }
+
+      for( Operation operation : myGroup )
+      {
+        boolean ready = true;
+        for( File directory : operation.directories )
+        {
+          ready &= checkedOut.contains( toKey( directory ) );
+        }
+        if( !ready )
+          continue;
+
+        try
+        {
+          operation.action.run( errors );
+        }
+        catch( Throwable e )
+        {
+          TransparentVcs.handleException( e, operation.target, errors );
+        }
+      }
+
+      for( String key : checkedOut )
+      {
+        final File directory = directories.get( key );
+        try
+        {
+          host.getClearCase().checkIn( directory, comments.get( key ) );
+        }
+        catch( ClearCaseException e )
+        {
+          TransparentVcs.handleException( e, directory, errors );
+        }
+      }
+      return errors;
+    }
+  }
+}
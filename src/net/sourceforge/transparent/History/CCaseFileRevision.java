@@ -1,20 +1,18 @@
 package net.sourceforge.transparent.History;
 
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.RepositoryLocation;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.reference.SoftReference;
 import com.intellij.vcsUtil.VcsImplUtil;
-import com.intellij.vcsUtil.VcsUtil;
-import net.sourceforge.transparent.TransparentVcs;
+import net.sourceforge.transparent.CCaseContentStore;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Date;
 
 /**
@@ -25,6 +23,7 @@ import java.util.Date;
 public class CCaseFileRevision implements VcsFileRevision
 {
   private final String version;
+  private final String predecessor;
   private final String submitter;
   private final String changeCcaseDate;
   private final String comment;
@@ -33,12 +32,15 @@ public class CCaseFileRevision implements VcsFileRevision
   private final int    order;
 
   private final String path;
-  private byte[] content;
+  //  The content is kept in the content store, here it is held only while
+  //  memory allows.
+  private SoftReference<byte[]> content;
   private final Project myProject;
 
   public CCaseFileRevision(CCaseHistoryParser.SubmissionData data, String path, final Project project) {
     myProject = project;
     version = data.version;
+    predecessor = data.predecessor;
     submitter = data.submitter;
     comment = data.comment;
     action = data.action;
@@ -55,7 +57,15 @@ public class CCaseFileRevision implements VcsFileRevision
     return null;
   }
 
-  public byte[] getContent() { return content;    }
+  /**
+   * Never runs cleartool: once the loaded content is collected it is read
+   * back from the store only, otherwise null is returned.
+   */
+  @Nullable
+  public byte[] getContent() {
+    final byte[] loaded = SoftReference.dereference(content);
+    return loaded != null ? loaded : CCaseContentStore.getInstance().getKnownCached(path, version);
+  }
   public String getBranchName()   { return null;       }
   public Date getRevisionDate() { return null; }
   public String getChangeCcaseDate() { return changeCcaseDate; }
@@ -64,38 +74,36 @@ public class CCaseFileRevision implements VcsFileRevision
   public int    getOrder()        { return order;      }
   public String getAction()       { return action;     }
   public String getLabels()       { return labels;     }
+  @Nullable
+  public String getPredecessor()  { return predecessor; }
 
   @NotNull
   public VcsRevisionNumber getRevisionNumber() {  return new CCaseRevisionNumber(version, order );  }
 
   public byte[] loadContent() {
-    @NonNls final String TMP_FILE_NAME = "idea_ccase";
-    @NonNls final String EXT = ".tmp";
     @NonNls final String TITLE = "Can not issue Get command";
 
     try
     {
-      File tmpFile = FileUtil.createTempFile(TMP_FILE_NAME, EXT);
-      tmpFile.deleteOnExit();
-      File tmpDir = tmpFile.getParentFile();
-      final File myTmpFile = new File( tmpDir, Long.toString( new Date().getTime()) );
-      myTmpFile.deleteOnExit();
-
-      final String out = TransparentVcs.cleartoolWithOutput("get", "-to", myTmpFile.getPath(), path + version);
-
-      //  We expect that properly finished command produce no (error or
-      //  warning) output.
-      if( out.length() > 0 ) {
-        VcsImplUtil.showErrorMessage(myProject, out, TITLE);
-      } else {
-        content = VcsUtil.getFileByteContent( myTmpFile );
-      }
+      final byte[] loaded = CCaseContentStore.getInstance().getContent(myProject, path, version);
+      content = new SoftReference<>(loaded);
+      return loaded;
     }
-    catch( IOException e )
+    catch( VcsException e )
     {
-      content = null;
+      VcsImplUtil.showErrorMessage(myProject, e.getMessage(), TITLE);
+      return null;
     }
-    return content;
+  }
+
+  /**
+   * Gives the version as a local file without reading it into memory; the
+   * file is to be given to {@link CCaseContentStore#release} once read.
+   * @return null for versions which are not kept as files (CHECKEDOUT)
+   */
+  @Nullable
+  public File getContentFile() throws VcsException {
+    return CCaseContentStore.getInstance().getContentFile(myProject, path, version);
   }
 
   public int compareTo( Object revision )
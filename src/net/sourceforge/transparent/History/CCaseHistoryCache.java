@@ -0,0 +1,424 @@
+package net.sourceforge.transparent.History;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.Consumer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import net.sourceforge.transparent.CCaseContentStore;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent history of ClearCase elements.
+ *
+ * Versions are immutable, so once "lshistory" records of an element are
+ * fetched they are stored on disk under the element's OID, and later requests
+ * only ask for the records created since the newest cached one - or since the
+ * oldest checkout seen last time, so that checkouts older than the newest
+ * version are listed again. Records of CHECKEDOUT versions are never stored
+ * since they come and go.
+ *
+ * Labels and comments of a version may change later and a version may be
+ * removed, so they are refreshed with a light "lshistory" (versions, labels
+ * and comments only), at most once in {@link #REFRESH_INTERVAL} per element.
+ *
+ * A request for the last few records of an element is passed to "lshistory
+ * -last" and does not touch the cache.
+ */
+public class CCaseHistoryCache
+{
+  @NonNls private static final String CACHE_DIR = "clearcase" + File.separator + "history";
+  @NonNls private static final String SINCE_SWITCH = "-since";
+  @NonNls private static final String LAST_SWITCH = "-last";
+  @NonNls private static final String CHECKEDOUT_SIG = "CHECKEDOUT";
+  @NonNls private static final String ERROR_SIG = "Error:";
+
+  private static final int FORMAT_VERSION = 3;
+  private static final long REFRESH_INTERVAL = 10 * 60 * 1000;
+
+  private static final CCaseHistoryCache ourInstance = new CCaseHistoryCache( new File( PathManager.getSystemPath(), CACHE_DIR ) );
+
+  private final File myDir;
+  private final Map<String, Object> myLocks = new ConcurrentHashMap<>();
+
+  CCaseHistoryCache( final File dir )
+  {
+    myDir = dir;
+  }
+
+  public static CCaseHistoryCache getInstance() {  return ourInstance;  }
+
+  /**
+   * Reports the history of the element to the consumer, newest records first.
+   * @param path  path of the element as it is passed to "lshistory"
+   * @param limit maximal number of records to report, 0 - report all
+   */
+  public void fetch( final String path, final int limit, final Consumer<CCaseHistoryParser.SubmissionData> consumer ) throws VcsException
+  {
+    if( limit > 0 )
+    {
+      passThrough( path, limit, consumer );
+      return;
+    }
+
+    final String oid = CCaseContentStore.getOid( path );
+    if( oid == null )
+    {
+      //  Nothing to key the cache by, e.g. the element is not loaded in the
+      //  view - just pass the log through.
+      passThrough( path, 0, consumer );
+      return;
+    }
+
+    synchronized( myLocks.computeIfAbsent( oid, k -> new Object() ) )
+    {
+      final File file = new File( myDir, toFileName( oid ) );
+      final Stored stored = load( file );
+      List<CCaseHistoryParser.SubmissionData> cached = stored.records;
+      long refreshed = stored.refreshed;
+      boolean changed = false;
+
+      final LimitingConsumer reporter = new LimitingConsumer( 0, consumer );
+      final List<CCaseHistoryParser.SubmissionData> fresh = new ArrayList<>();
+      boolean incremental = !cached.isEmpty();
+
+      String errors = CCaseHistoryProvider.runHistoryCommand( sinceSwitches( cached, stored.oldestCheckout ), Collections.singletonList( path ),
+                                                              new FreshRecordsCollector( cached, fresh, reporter ) );
+      CCaseHistoryProvider.checkVobObject( errors );
+      if( incremental && fresh.isEmpty() && errors.contains( ERROR_SIG ) )
+      {
+        //  "-since" did not accept the date of the last cached record (e.g. it
+        //  is printed in some unexpected locale) - forget what we have and
+        //  fetch everything once again.
+        TransparentVcs.LOG.info( "Incremental history fetch failed, reloading the history of " + path + ": " + errors );
+        cached = Collections.emptyList();
+        incremental = false;
+        errors = CCaseHistoryProvider.runHistoryCommand( Collections.emptyList(), Collections.singletonList( path ),
+                                                         new FreshRecordsCollector( cached, fresh, reporter ) );
+        CCaseHistoryProvider.checkVobObject( errors );
+      }
+
+      final long now = System.currentTimeMillis();
+      if( !incremental )
+      {
+        refreshed = now;
+      }
+      else if( now - refreshed > REFRESH_INTERVAL || now < refreshed )
+      {
+        final List<CCaseHistoryParser.SubmissionData> updated = refreshMutableFields( path, cached );
+        if( updated != null )
+        {
+          cached = updated;
+          changed = true;
+        }
+        refreshed = now;
+      }
+
+      for( CCaseHistoryParser.SubmissionData data : cached )
+      {
+        reporter.consume( data );
+      }
+
+      final List<CCaseHistoryParser.SubmissionData> merged = new ArrayList<>();
+      String oldestCheckout = null;
+      for( CCaseHistoryParser.SubmissionData data : fresh )
+      {
+        if( isImmutable( data ) )
+          merged.add( data );
+        else if( StringUtil.isNotEmpty( data.changeDate ) )
+          oldestCheckout = data.changeDate;
+      }
+      if( !merged.isEmpty() || !incremental || changed || refreshed != stored.refreshed ||
+          !Objects.equals( oldestCheckout, stored.oldestCheckout ) )
+      {
+        merged.addAll( cached );
+        save( file, new Stored( merged, oldestCheckout, refreshed ) );
+      }
+    }
+  }
+
+  private static void passThrough( final String path, final int limit,
+                                   final Consumer<CCaseHistoryParser.SubmissionData> consumer ) throws VcsException
+  {
+    final List<String> switches = limit > 0 ? Arrays.asList( LAST_SWITCH, String.valueOf( limit ) ) : Collections.emptyList();
+    final String errors = CCaseHistoryProvider.runHistoryCommand( switches, Collections.singletonList( path ),
+                                                                  new LimitingConsumer( limit, consumer ) );
+    CCaseHistoryProvider.checkVobObject( errors );
+  }
+
+  /**
+   * Takes the current labels and comments of the cached versions and drops
+   * the versions which were removed.
+   * @return the updated records, or null if nothing changed or the state of
+   *         the element could not be read
+   */
+  @Nullable
+  private static List<CCaseHistoryParser.SubmissionData> refreshMutableFields( final String path,
+                                                                               final List<CCaseHistoryParser.SubmissionData> cached )
+  {
+    final Map<String, CCaseHistoryParser.SubmissionData> current = new HashMap<>();
+    final String errors = CCaseHistoryProvider.runHistoryCommand( Collections.emptyList(), Collections.singletonList( path ), true,
+                                                                  data -> current.put( data.version, data ) );
+    if( current.isEmpty() || errors.contains( ERROR_SIG ) )
+      return null;
+
+    boolean changed = false;
+    final List<CCaseHistoryParser.SubmissionData> result = new ArrayList<>( cached.size() );
+    for( CCaseHistoryParser.SubmissionData data : cached )
+    {
+      final CCaseHistoryParser.SubmissionData state = current.get( data.version );
+      if( state == null )
+      {
+        changed = true;
+        continue;
+      }
+      if( !Objects.equals( data.labels, state.labels ) || !Objects.equals( data.comment, state.comment ) )
+      {
+        data.labels = state.labels;
+        data.comment = state.comment;
+        changed = true;
+      }
+      result.add( data );
+    }
+    return changed ? result : null;
+  }
+
+  /**
+   * Everything which existed at the previous fetch was listed then, so the
+   * date of any record of that fetch will do. Checkouts are not stored and
+   * are to be listed every time, hence the oldest of them wins.
+   */
+  private static List<String> sinceSwitches( final List<CCaseHistoryParser.SubmissionData> cached,
+                                             @Nullable final String oldestCheckout )
+  {
+    if( cached.isEmpty() )
+      return Collections.emptyList();
+    if( oldestCheckout != null )
+      return Arrays.asList( SINCE_SWITCH, oldestCheckout );
+    for( CCaseHistoryParser.SubmissionData data : cached )
+    {
+      if( StringUtil.isNotEmpty( data.changeDate ) )
+        return Arrays.asList( SINCE_SWITCH, data.changeDate );
+    }
+    return Collections.emptyList();
+  }
+
+  private static boolean isImmutable( final CCaseHistoryParser.SubmissionData data )
+  {
+    return data.version != null && !data.version.contains( CHECKEDOUT_SIG );
+  }
+
+  private static String toFileName( final String oid )
+  {
+    final StringBuilder sb = new StringBuilder( oid.length() );
+    for( int i = 0; i < oid.length(); i++ )
+    {
+      final char c = oid.charAt( i );
+      sb.append( Character.isLetterOrDigit( c ) || c == '.' || c == '-' ? c : '_' );
+    }
+    return sb.toString();
+  }
+
+  private static class Stored
+  {
+    static final Stored EMPTY = new Stored( Collections.emptyList(), null, 0 );
+
+    final List<CCaseHistoryParser.SubmissionData> records;
+    @Nullable final String oldestCheckout;
+    final long refreshed;
+
+    Stored( final List<CCaseHistoryParser.SubmissionData> records, @Nullable final String oldestCheckout, final long refreshed )
+    {
+      this.records = records;
+      this.oldestCheckout = oldestCheckout;
+      this.refreshed = refreshed;
+    }
+  }
+
+  //
+  //  Storage format: the date of the oldest checkout ("" if none) and the time
+  //  of the last refresh of labels and comments, then a table of distinct
+  //  strings followed by the records, each field being an index into the
+  //  table (0 stands for null). Submitters, actions and labels repeat a lot,
+  //  so they are written only once.
+  //
+
+  @NotNull
+  private static Stored load( final File file )
+  {
+    if( !file.exists() )
+      return Stored.EMPTY;
+
+    try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+    {
+      if( DataInputOutputUtil.readINT( in ) != FORMAT_VERSION )
+        return Stored.EMPTY;
+
+      final String oldestCheckout = IOUtil.readUTF( in );
+      final long refreshed = DataInputOutputUtil.readLONG( in );
+
+      final int stringsCount = DataInputOutputUtil.readINT( in );
+      final String[] strings = new String[ stringsCount + 1 ];
+      for( int i = 1; i <= stringsCount; i++ )
+      {
+        strings[ i ] = IOUtil.readUTF( in );
+      }
+
+      final int count = DataInputOutputUtil.readINT( in );
+      final List<CCaseHistoryParser.SubmissionData> result = new ArrayList<>( count );
+      for( int i = 0; i < count; i++ )
+      {
+        final CCaseHistoryParser.SubmissionData data = new CCaseHistoryParser.SubmissionData( i );
+        data.changeDate = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.submitter = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.action = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.labels = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.version = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.predecessor = strings[ DataInputOutputUtil.readINT( in ) ];
+        data.comment = strings[ DataInputOutputUtil.readINT( in ) ];
+        result.add( data );
+      }
+      return new Stored( result, oldestCheckout.isEmpty() ? null : oldestCheckout, refreshed );
+    }
+    catch( IOException | RuntimeException e )
+    {
+      TransparentVcs.LOG.info( "Can not read cached history from " + file.getPath(), e );
+      FileUtil.delete( file );
+      return Stored.EMPTY;
+    }
+  }
+
+  private static void save( final File file, final Stored stored )
+  {
+    final List<CCaseHistoryParser.SubmissionData> records = stored.records;
+    final Map<String, Integer> indexes = new LinkedHashMap<>();
+    final int[] fields = new int[ records.size() * 7 ];
+    int pos = 0;
+    for( CCaseHistoryParser.SubmissionData data : records )
+    {
+      fields[ pos++ ] = indexOf( data.changeDate, indexes );
+      fields[ pos++ ] = indexOf( data.submitter, indexes );
+      fields[ pos++ ] = indexOf( data.action, indexes );
+      fields[ pos++ ] = indexOf( data.labels, indexes );
+      fields[ pos++ ] = indexOf( data.version, indexes );
+      fields[ pos++ ] = indexOf( data.predecessor, indexes );
+      fields[ pos++ ] = indexOf( data.comment, indexes );
+    }
+
+    File tmpFile = null;
+    try
+    {
+      FileUtil.createDirectory( file.getParentFile() );
+      tmpFile = FileUtil.createTempFile( file.getParentFile(), file.getName(), null, true, false );
+      try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+      {
+        DataInputOutputUtil.writeINT( out, FORMAT_VERSION );
+        IOUtil.writeUTF( out, StringUtil.notNullize( stored.oldestCheckout ) );
+        DataInputOutputUtil.writeLONG( out, stored.refreshed );
+        DataInputOutputUtil.writeINT( out, indexes.size() );
+        for( String value : indexes.keySet() )
+        {
+          IOUtil.writeUTF( out, value );
+        }
+        DataInputOutputUtil.writeINT( out, records.size() );
+        for( int field : fields )
+        {
+          DataInputOutputUtil.writeINT( out, field );
+        }
+      }
+      Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+    catch( IOException e )
+    {
+      TransparentVcs.LOG.info( "Can not store history cache " + file.getPath(), e );
+      if( tmpFile != null )
+        FileUtil.delete( tmpFile );
+    }
+  }
+
+  private static int indexOf( @Nullable final String value, final Map<String, Integer> indexes )
+  {
+    if( value == null )
+      return 0;
+    return indexes.computeIfAbsent( value, k -> indexes.size() + 1 );
+  }
+
+  /**
+   * Collects records which are not in the cache yet and reports them.
+   * "-since" is inclusive, so the newest cached records come once again.
+   */
+  private static class FreshRecordsCollector implements Consumer<CCaseHistoryParser.SubmissionData>
+  {
+    private final Set<String> myKnownVersions = new HashSet<>();
+    private final List<CCaseHistoryParser.SubmissionData> myFresh;
+    private final Consumer<CCaseHistoryParser.SubmissionData> myReporter;
+
+    FreshRecordsCollector( final List<CCaseHistoryParser.SubmissionData> cached,
+                           final List<CCaseHistoryParser.SubmissionData> fresh,
+                           final Consumer<CCaseHistoryParser.SubmissionData> reporter )
+    {
+      for( CCaseHistoryParser.SubmissionData data : cached )
+      {
+        myKnownVersions.add( data.version );
+      }
+      myFresh = fresh;
+      myReporter = reporter;
+    }
+
+    @Override
+    public void consume( final CCaseHistoryParser.SubmissionData data )
+    {
+      if( myKnownVersions.contains( data.version ) )
+        return;
+
+      myFresh.add( data );
+      myReporter.consume( data );
+    }
+  }
+
+  /**
+   * Renumbers records in the order they are reported and stops reporting
+   * when the display limit is reached.
+   */
+  private static class LimitingConsumer implements Consumer<CCaseHistoryParser.SubmissionData>
+  {
+    private final int myLimit;
+    private final Consumer<CCaseHistoryParser.SubmissionData> myConsumer;
+    private int myCount;
+
+    LimitingConsumer( final int limit, final Consumer<CCaseHistoryParser.SubmissionData> consumer )
+    {
+      myLimit = limit;
+      myConsumer = consumer;
+    }
+
+    @Override
+    public void consume( final CCaseHistoryParser.SubmissionData data )
+    {
+      if( myLimit > 0 && myCount >= myLimit )
+        return;
+
+      final CCaseHistoryParser.SubmissionData copy = new CCaseHistoryParser.SubmissionData( myCount++ );
+      copy.action = data.action;
+      copy.element = data.element;
+      copy.version = data.version;
+      copy.predecessor = data.predecessor;
+      copy.submitter = data.submitter;
+      copy.changeDate = data.changeDate;
+      copy.comment = data.comment;
+      copy.labels = data.labels;
+      myConsumer.consume( copy );
+    }
+  }
+}
@@ -1,10 +1,7 @@
 package net.sourceforge.transparent.History;
 
-import com.intellij.openapi.util.text.LineTokenizer;
-import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Consumer;
 import org.jetbrains.annotations.NonNls;
-import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -14,10 +11,22 @@ public class CCaseHistoryParser
   @NonNls public static final String BRANCH_COMMAND_SIG = "create branch";
   @NonNls public static final String CREATE_ELEM_COMMAND_SIG = "create file element";
 
-  @NonNls private static final String VERSION_DELIM = "@@";
-  @NonNls private static final String[] actions = { CREATE_ELEM_COMMAND_SIG, BRANCH_COMMAND_SIG, "create version", "checkin version" };
   private static final String FMT = "-fmt";
 
+  //  Every field is printed on its own line as "<digit>\1<value>"; only the
+  //  comment (printed last) may continue on the following lines.
+  private static final char MAGIC = '\1';
+  private static final int DATE_FIELD = 0;
+  private static final int SUBMITTER_FIELD = 1;
+  private static final int ACTION_FIELD = 2;
+  private static final int LABELS_FIELD = 3;
+  private static final int VERSION_FIELD = 4;
+  private static final int COMMENT_FIELD = 5;
+  private static final int PREDECESSOR_FIELD = 6;
+  @NonNls private static final String[] ourFormats = { "%d", "%Fu", "%e", "%l", "%n", "%Nc", "%PVn" };
+  private static final int[] ourFieldsOrder = { DATE_FIELD, SUBMITTER_FIELD, ACTION_FIELD, LABELS_FIELD, VERSION_FIELD,
+                                                PREDECESSOR_FIELD, COMMENT_FIELD };
+
   private CCaseHistoryParser() {}
 
   public static class SubmissionData
@@ -27,7 +36,9 @@ public class CCaseHistoryParser
     }
 
     public String action;
+    public String element;
     public String version;
+    public String predecessor;
     public String submitter;
     public String changeDate;
     public String comment;
@@ -35,205 +46,299 @@ public class CCaseHistoryParser
     public int    order;
   }
 
-  public static ArrayList<SubmissionData> parse( final String content )
+  public static ArrayList<SubmissionData> parse( final CharSequence content )
   {
-    String[] lines = LineTokenizer.tokenize( content, false );
-
-    final LogParseResult resultHolder = new LogParseResult();
-    final FieldsDetector detector = new FieldsDetector();
+    final ArrayList<SubmissionData> result = new ArrayList<>();
+    parse( content, result::add );
+    return result;
+  }
 
-    for( String line : lines )
+  /**
+   * Scans the log once, line ends are "\n", "\r" or "\r\n".
+   */
+  public static void parse( final CharSequence content, final Consumer<SubmissionData> consumer )
+  {
+    final StreamingParser parser = new StreamingParser( consumer );
+    if( content instanceof String && ((String)content).indexOf( '\r' ) == -1 )
     {
-      final Field field = detector.guess(line);
-      if (field != null) {
-        field.parse(line, resultHolder);
-      } else {
-        final Field defaultField = detector.defaultField();
-        if (defaultField != null) {
-          defaultField.fill(line, resultHolder);
-        }
+      //  The usual case: String.indexOf finds line ends several times faster
+      //  than a loop over the characters.
+      final String text = (String)content;
+      int lineStart = 0;
+      int lineEnd;
+      while( (lineEnd = text.indexOf( '\n', lineStart )) != -1 )
+      {
+        parser.feedLine( text, lineStart, lineEnd );
+        lineStart = lineEnd + 1;
       }
+      if( lineStart < text.length() )
+        parser.feedLine( text, lineStart, text.length() );
+      parser.finish();
+      return;
     }
-    return resultHolder.getResult();
-  }
 
-  private static class FieldsDetector {
-    private int myRecentIdx;
-
-    private FieldsDetector() {
-      myRecentIdx = 0;
-    }
-
-    @Nullable
-    public Field guess(final String line) {
-      int guessIdx = (myRecentIdx + 1 == ourFields.length) ? 0 : (myRecentIdx + 1);
-      if (ourFields[guessIdx].acceptString(line)) {
-        myRecentIdx = guessIdx;
-        return ourFields[guessIdx];
+    final int length = content.length();
+    int lineStart = 0;
+    int i = 0;
+    while( i < length )
+    {
+      final char c = content.charAt( i );
+      if( c == '\n' || c == '\r' )
+      {
+        parser.feedLine( content, lineStart, i );
+        if( c == '\r' && i + 1 < length && content.charAt( i + 1 ) == '\n' )
+          i++;
+        lineStart = ++i;
       }
-      for (int i = 0; i < ourFields.length; i++) {
-        final Field field = ourFields[i];
-        if (field.acceptString(line)) {
-          myRecentIdx = i;
-          return field;
-        }
+      else
+      {
+        i++;
       }
-      return null;
     }
-
-    @Nullable
-    public Field defaultField() {
-      int oldRecentIdx = myRecentIdx;
-      // if there was a comment field before
-      if (ourFields[oldRecentIdx].myNum == 5) {
-        myRecentIdx = oldRecentIdx;
-        return ourFields[oldRecentIdx];
-      }
-      return null;
+    if( lineStart < length )
+    {
+      parser.feedLine( content, lineStart, length );
     }
+    parser.finish();
   }
 
   public static void fillParametersVersionOnly(final List<String> list) {
     list.add(FMT);
     final StringBuilder sb = new StringBuilder();
-    ourFields[4].append(sb);
+    appendField(sb, VERSION_FIELD);
     list.add(sb.toString());
+  }
 
+  /**
+   * Format of the fields which change after a version is created: labels
+   * (mklabel/rmlabel) and the comment (chevent). A record starts with its
+   * version.
+   */
+  public static void fillParametersMutable(final List<String> list) {
+    list.add(FMT);
+    final StringBuilder sb = new StringBuilder();
+    appendField(sb, VERSION_FIELD);
+    appendField(sb, LABELS_FIELD);
+    appendField(sb, COMMENT_FIELD);
+    list.add(sb.toString());
   }
 
   public static void fillParametersTail(final List<String> list) {
     list.add(FMT);
     final StringBuilder sb = new StringBuilder();
-    for (Field field : ourFields) {
-      field.append(sb);
+    for (int field : ourFieldsOrder) {
+      appendField(sb, field);
     }
     list.add(sb.toString());
   }
 
-  private static final Field[] ourFields = new Field[] {
-    new Field(0,"\\\"", "\"", "%d") {
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        final SubmissionData data = iterator.createNext();
-        data.changeDate = value == null ? "" : value;
-      }
-    },
-    new Field(1,"\\\"", "\"", "%Fu") {
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        final SubmissionData data = iterator.getCurrent();
-        data.submitter = value == null ? "" : value;
-      }
-    },
-    new Field(2,"\\\"", "\"", "%e") {
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        final SubmissionData data = iterator.getCurrent();
-        data.action = value == null ? "" : value;
-      }
-    },
-    new Field(3,"\\\"", "\"", "%l") {
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        final SubmissionData data = iterator.getCurrent();
-        data.labels = value == null ? "" : value;
-      }
-    },
-    new Field(4,"\\\"", "\"", "%n") {
-      @Override
-      protected String parseImpl(String s) {
-        final String parsed = super.parseImpl(s);
-        final int idx = parsed.indexOf(VERSION_DELIM);
-        if (idx != -1) {
-          return parsed.substring(idx);
-        }
-        return "";
-      }
+  private static void appendField(final StringBuilder sb, final int num) {
+    sb.append(num);
+    sb.append(MAGIC);
+    sb.append(ourFormats[num]);
+    sb.append('\n');
+  }
+
+  /**
+   * Parses the log line by line as it is produced by the cleartool process.
+   * Every record is passed to the consumer as soon as the next record starts,
+   * the last one - upon {@link #finish()}.
+   *
+   * Values are taken right from the line without splitting it; submitters,
+   * actions, labels and element names repeat from record to record and are
+   * shared between them.
+   */
+  public static class StreamingParser
+  {
+    private final Consumer<SubmissionData> myConsumer;
+    private final StringPool myPool = new StringPool();
+    private final StringBuilder myComment = new StringBuilder();
 
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        SubmissionData data = iterator.getCurrent();
-        if (data.version != null) {
-          data = iterator.createNext();
+    private SubmissionData myCurrent;
+    private boolean myHasComment;
+    private boolean myInComment;
+    private int myCount;
+
+    public StreamingParser( final Consumer<SubmissionData> consumer )
+    {
+      myConsumer = consumer;
+    }
+
+    public void feedLine( final CharSequence line )
+    {
+      feedLine( line, 0, line.length() );
+    }
+
+    public void feedLine( final CharSequence chars, final int start, final int end )
+    {
+      final int field = detectField( chars, start, end );
+      if( field < 0 )
+      {
+        //  Lines which do not start with a field marker continue the
+        //  multiline comment, if there was one.
+        if( myInComment )
+        {
+          myComment.append( '\n' ).append( chars, start, end );
         }
-        data.version = value == null ? "" : value;
-      }
-    },
-    new Field(5,"\\\"", "\"", "%Nc") {
-      @Override
-      public void parse(String s, CreatingIterator iterator) {
-        super.parse(s, iterator);
+        return;
       }
 
-      protected void fill(@Nullable String value, CreatingIterator iterator) {
-        final SubmissionData data = iterator.getCurrent();
-        if (value != null) {
-          data.comment = (data.comment == null) ? value : data.comment + '\n' + value;
-        }
+      myInComment = false;
+      final int valueStart = start + 2;
+      switch( field )
+      {
+        case DATE_FIELD:
+          createNext().changeDate = chars.subSequence( valueStart, end ).toString();
+          break;
+        case SUBMITTER_FIELD:
+          getCurrent().submitter = myPool.get( chars, valueStart, end );
+          break;
+        case ACTION_FIELD:
+          getCurrent().action = myPool.get( chars, valueStart, end );
+          break;
+        case LABELS_FIELD:
+          getCurrent().labels = myPool.get( chars, valueStart, end );
+          break;
+        case VERSION_FIELD:
+          fillVersion( chars, valueStart, end );
+          break;
+        case PREDECESSOR_FIELD:
+          //  Empty for the first version of an element and for branches.
+          if( valueStart < end )
+            getCurrent().predecessor = chars.subSequence( valueStart, end ).toString();
+          break;
+        case COMMENT_FIELD:
+          getCurrent();
+          if( myHasComment )
+            myComment.append( '\n' );
+          myComment.append( chars, valueStart, end );
+          myHasComment = true;
+          myInComment = true;
+          break;
       }
     }
-  };
 
-  private abstract static class Field {
-    private final int myNum;
-    private final String myText;
-    private final static String myMagic = "\1";
+    public void finish()
+    {
+      flush();
+    }
 
-    public Field(final int num, final String writeWrapper, String readWrapper, final String text) {
-      myNum = num;
-      myText = text;
+    private void fillVersion( final CharSequence chars, final int start, final int end )
+    {
+      SubmissionData data = getCurrent();
+      if( data.version != null )
+        data = createNext();
+
+      final int idx = indexOf( chars, start, end );
+      if( idx != -1 )
+      {
+        data.element = myPool.get( chars, start, idx );
+        data.version = chars.subSequence( idx, end ).toString();
+      }
+      else
+      {
+        data.element = myPool.get( chars, start, end );
+        data.version = "";
+      }
     }
 
-    public void append(final StringBuilder sb) {
-      sb.append(myNum);
-      sb.append(myMagic);
-      sb.append(myText);
-      sb.append('\n');
+    private SubmissionData getCurrent()
+    {
+      if( myCurrent == null )
+        myCurrent = new SubmissionData( myCount++ );
+      return myCurrent;
     }
 
-    public boolean acceptString(final String s) {
-      return StringUtil.startsWithConcatenation(s, String.valueOf(myNum), myMagic);
+    private SubmissionData createNext()
+    {
+      flush();
+      myCurrent = new SubmissionData( myCount++ );
+      return myCurrent;
     }
 
-    protected abstract void fill(@Nullable final String value, final CreatingIterator iterator);
+    private void flush()
+    {
+      if( myCurrent == null )
+        return;
+
+      final SubmissionData data = myCurrent;
+      if( myHasComment )
+        data.comment = myComment.toString();
+
+      myCurrent = null;
+      myComment.setLength( 0 );
+      myHasComment = false;
+      myInComment = false;
+      myConsumer.consume( data );
+    }
 
-    @Nullable
-    protected String parseImpl(final String s) {
-      if (acceptString(s)) {
-        final String result = s.substring(2);
-        return result;
-      }
-      return null;
+    private static int detectField( final CharSequence chars, final int start, final int end )
+    {
+      if( end - start < 2 || chars.charAt( start + 1 ) != MAGIC )
+        return -1;
+      final int num = chars.charAt( start ) - '0';
+      return (num >= 0 && num < ourFormats.length) ? num : -1;
     }
 
-    public void parse(final String s, final CreatingIterator iterator) {
-      fill(parseImpl(s), iterator);
+    private static int indexOf( final CharSequence chars, final int start, final int end )
+    {
+      for( int i = start; i < end - 1; i++ )
+      {
+        if( chars.charAt( i ) == '@' && chars.charAt( i + 1 ) == '@' )
+          return i;
+      }
+      return -1;
     }
   }
 
-  private interface CreatingIterator {
-    @NotNull SubmissionData getCurrent();
-    @NotNull SubmissionData createNext();
-  }
+  /**
+   * Tiny open addressing table which returns the same String instance for
+   * equal character ranges without creating a String on a hit.
+   */
+  private static class StringPool
+  {
+    private static final int CAPACITY = 1024;
+    private static final int MAX_SIZE = CAPACITY * 3 / 4;
 
-  private static class LogParseResult implements CreatingIterator {
-    private final ArrayList<SubmissionData> myResult;
+    private final String[] myTable = new String[ CAPACITY ];
+    private int mySize;
 
-    private LogParseResult() {
-      myResult = new ArrayList<>();
-    }
+    String get( final CharSequence chars, final int start, final int end )
+    {
+      int hash = 0;
+      for( int i = start; i < end; i++ )
+      {
+        hash = 31 * hash + chars.charAt( i );
+      }
 
-    @NotNull
-    public SubmissionData getCurrent() {
-      if (myResult.isEmpty()) {
-        myResult.add(new SubmissionData(myResult.size()));
+      int idx = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+      String value;
+      while( (value = myTable[ idx ]) != null )
+      {
+        if( matches( value, chars, start, end ) )
+          return value;
+        idx = (idx + 1) & (CAPACITY - 1);
       }
-      return myResult.get(myResult.size() - 1);
-    }
 
-    @NotNull
-    public SubmissionData createNext() {
-      myResult.add(new SubmissionData(myResult.size()));
-      return myResult.get(myResult.size() - 1);
+      final String result = chars.subSequence( start, end ).toString();
+      if( mySize < MAX_SIZE )
+      {
+        myTable[ idx ] = result;
+        mySize++;
+      }
+      return result;
     }
 
-    public ArrayList<SubmissionData> getResult() {
-      return myResult;
+    private static boolean matches( final String value, final CharSequence chars, final int start, final int end )
+    {
+      if( value.length() != end - start )
+        return false;
+      for( int i = 0; i < value.length(); i++ )
+      {
+        if( value.charAt( i ) != chars.charAt( start + i ) )
+          return false;
+      }
+      return true;
     }
   }
 }
@@ -11,6 +11,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Consumer;
 import com.intellij.util.ui.ColumnInfo;
+import net.sourceforge.transparent.Runner;
 import net.sourceforge.transparent.StatusMultipleProcessor;
 import net.sourceforge.transparent.TransparentVcs;
 import org.jetbrains.annotations.NonNls;
@@ -18,13 +19,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHistorySessionFactory<Boolean, CCaseHistoryProvider.CCaseHistorySession> {
   @NonNls private final static String HISTORY_CMD = "lshistory";
-  @NonNls private final static String LIMITED_SWITCH = "-last";
   @NonNls private final static String CCASE_DATE_COLUMN = "ClearCase Date";
   @NonNls private final static String ACTION_COLUMN = "Action";
   @NonNls private final static String LABEL_COLUMN = "Label";
@@ -105,58 +103,13 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
 
   public VcsHistorySession createSessionFor( FilePath filePath ) throws VcsException
   {
-    String log;
-    String path = filePath.getPath();
-    if( host.renamedFiles.containsKey( path ) )
-      path = host.renamedFiles.get( path );
-
-    //  Cleartool can not handle history for hijacked files. Thus we have to
-    //  construct "versioned" path, which directly points to the vob-object.
-    VirtualFile vfile = filePath.getVirtualFile();
-    if( vfile != null )
-    {
-      FileStatus status = FileStatusManager.getInstance( project ).getStatus( vfile );
-      if( status == FileStatus.HIJACKED )
-      {
-        path += "@@";
-      }
-    }
-
-    final List<String> commandParts = new ArrayList<>();
-    commandParts.add(HISTORY_CMD);
-    if (host.getConfig().isHistoryResticted) {
-      int margin = host.getConfig().getHistoryRevisionsMargin();
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf( margin ));
-    }
-    CCaseHistoryParser.fillParametersTail(commandParts);
-    commandParts.add(path);
-
-    log = TransparentVcs.cleartoolWithOutput(ArrayUtil.toStringArray(commandParts));
-
-    //  There may exist files for which we know nothing.
-    ArrayList<VcsFileRevision> revisions = new ArrayList<>();
-    if( log.contains( NOT_A_VOB_OBJECT )) {
-      throw new VcsException( log );
-    } else {
-      ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( log );
-      for( CCaseHistoryParser.SubmissionData change : changes )
-      {
-        //  When file is being committed into the repository, "lshistory"
-        //  returns a intermediate record with commit date in the invalid format
-        //  which can not be parsed (actually, it contains only full date wihtout
-        //  time information delimited by '.'). Just skip this record.
-        try
-        {
-          VcsFileRevision rev = new CCaseFileRevision(change, path, project);
-          revisions.add( rev );
-        }
-        catch( NullPointerException e)
-        {
-          TransparentVcs.LOG.info( "Can not parse history record, found intermediate record.");
-        }
-      }
-    }
+    final String path = getHistoryPath( project, host, filePath );
+    final ArrayList<VcsFileRevision> revisions = new ArrayList<>();
+    runHistory( host, path, 0, change -> {
+      VcsFileRevision rev = createRevision( change, path, project );
+      if( rev != null )
+        revisions.add( rev );
+    });
 
     return new CCaseHistorySession(revisions, filePath);
   }
@@ -164,9 +117,29 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
   public static void historyGetter(final Project project, final FilePath filePath, final int maxCnt,
                                    final Consumer<CCaseHistoryParser.SubmissionData> consumer) throws VcsException {
     final TransparentVcs host = TransparentVcs.getInstance(project);
-    String log;
+    runHistory(host, getHistoryPath(project, host, filePath), maxCnt, consumer);
+  }
+
+  /**
+   * Records are reported to the partner one by one while "lshistory" is still
+   * running, so that the first revisions appear in the history tab without
+   * waiting for the whole log of the element.
+   */
+  public void reportAppendableHistory(FilePath filePath, final VcsAppendableHistorySessionPartner partner) throws VcsException {
+    final String path = getHistoryPath(project, host, filePath);
+    partner.reportCreatedEmptySession(new CCaseHistorySession(new ArrayList<>(), filePath));
+
+    runHistory(host, path, 0, change -> {
+      final VcsFileRevision rev = createRevision(change, path, project);
+      if (rev != null) {
+        partner.acceptRevision(rev);
+      }
+    });
+  }
+
+  private static String getHistoryPath(final Project project, final TransparentVcs host, final FilePath filePath) {
     String path = filePath.getPath();
-    if(host.renamedFiles.containsKey( path ) )
+    if( host.renamedFiles.containsKey( path ) )
       path = host.renamedFiles.get( path );
 
     //  Cleartool can not handle history for hijacked files. Thus we have to
@@ -180,36 +153,80 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
         path += "@@";
       }
     }
+    return path;
+  }
 
+  private static void runHistory(final TransparentVcs host, final String path, final int maxCnt,
+                                 final Consumer<CCaseHistoryParser.SubmissionData> consumer) throws VcsException {
+    //  A limit is passed to cleartool ("-last"), only whole histories are
+    //  cached.
+    int limit = maxCnt;
+    if (limit <= 0 && host.getConfig().isHistoryResticted) {
+      limit = host.getConfig().getHistoryRevisionsMargin();
+    }
+    CCaseHistoryCache.getInstance().fetch(path, limit, consumer);
+  }
+
+  /**
+   * Runs "lshistory" with the given switches over the paths, parsing records
+   * right from the process output.
+   * @return the error output of the command
+   */
+  static String runHistoryCommand(final List<String> switches, final Collection<String> paths,
+                                  final Consumer<CCaseHistoryParser.SubmissionData> consumer) {
+    return runHistoryCommand(switches, paths, false, consumer);
+  }
+
+  /**
+   * @param mutableOnly if set, only versions, labels and comments are asked
+   *                    (see {@link CCaseHistoryParser#fillParametersMutable})
+   */
+  static String runHistoryCommand(final List<String> switches, final Collection<String> paths, final boolean mutableOnly,
+                                  final Consumer<CCaseHistoryParser.SubmissionData> consumer) {
     final List<String> commandParts = new ArrayList<>();
     commandParts.add(HISTORY_CMD);
-    if (maxCnt > 0) {
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf(maxCnt));
-    } else if (host.getConfig().isHistoryResticted) {
-      int margin = host.getConfig().getHistoryRevisionsMargin();
-      commandParts.add(LIMITED_SWITCH);
-      commandParts.add(String.valueOf( margin ));
+    commandParts.addAll(switches);
+    if (mutableOnly) {
+      CCaseHistoryParser.fillParametersMutable(commandParts);
+    } else {
+      CCaseHistoryParser.fillParametersTail(commandParts);
     }
-    CCaseHistoryParser.fillParametersTail(commandParts);
-    commandParts.add(path);
+    commandParts.addAll(paths);
 
-    log = TransparentVcs.cleartoolWithOutput(ArrayUtil.toStringArray(commandParts));
+    //  Records are parsed right from the process output, the runner keeps
+    //  only the error stream.
+    final CCaseHistoryParser.StreamingParser parser = new CCaseHistoryParser.StreamingParser(consumer);
+    final Runner runner = new Runner();
+    runner.outputListener = parser::feedLine;
+    runner.run(Runner.getCommand(TransparentVcs.CLEARTOOL_CMD, ArrayUtil.toStringArray(commandParts)), true);
+    parser.finish();
 
-    if( log.contains( NOT_A_VOB_OBJECT )) {
-      throw new VcsException( log );
-    } else {
-      ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( log );
-      for (CCaseHistoryParser.SubmissionData change : changes) {
-        consumer.consume(change);
-      }
+    return runner.getOutput() == null ? "" : runner.getOutput();
+  }
+
+  static void checkVobObject(final String errors) throws VcsException {
+    //  There may exist files for which we know nothing.
+    if( errors.contains( NOT_A_VOB_OBJECT )) {
+      throw new VcsException( errors );
     }
   }
 
-  public void reportAppendableHistory(FilePath path, VcsAppendableHistorySessionPartner partner) throws VcsException {
-    // will implement it further
-    final VcsHistorySession session = createSessionFor(path);
-    partner.reportCreatedEmptySession((VcsAbstractHistorySession) session);
+  @Nullable
+  private static VcsFileRevision createRevision(final CCaseHistoryParser.SubmissionData change, final String path,
+                                                final Project project) {
+    //  When file is being committed into the repository, "lshistory"
+    //  returns a intermediate record with commit date in the invalid format
+    //  which can not be parsed (actually, it contains only full date wihtout
+    //  time information delimited by '.'). Just skip this record.
+    try
+    {
+      return new CCaseFileRevision(change, path, project);
+    }
+    catch( NullPointerException e)
+    {
+      TransparentVcs.LOG.info( "Can not parse history record, found intermediate record.");
+      return null;
+    }
   }
 
   public FilePath getUsedFilePath(CCaseHistorySession session) {
@@ -281,7 +298,7 @@ public class CCaseHistoryProvider implements VcsHistoryProvider, VcsCacheableHis
     }
 
     public HistoryAsTreeProvider getHistoryAsTreeProvider() {
-      return null;
+      return CCaseVersionGraph.forElement(myPath.getPath())::createTree;
     }
 
     @Override
@@ -0,0 +1,161 @@
+package net.sourceforge.transparent.History;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.util.TreeItem;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Version graph of a ClearCase element built from the history records.
+ *
+ * A version "\main\dev\3" lies on the branch "\main\dev"; versions of a branch
+ * follow one another by number, and the branch itself sprouts from the
+ * predecessor of its first version (printed by "%PVn"). Graphs are kept per
+ * element and only the versions which were not seen before are added when
+ * the history is shown again.
+ */
+public class CCaseVersionGraph
+{
+  @NonNls private static final String VERSION_DELIM = "@@";
+  @NonNls private static final String CHECKEDOUT_SIG = "CHECKEDOUT";
+
+  private static final Map<String, CCaseVersionGraph> ourGraphs = ContainerUtil.createConcurrentSoftValueMap();
+
+  private final Map<String, Node> myNodes = new HashMap<>();
+  private final Map<String, String> myBranchPoints = new HashMap<>();
+
+  public static CCaseVersionGraph forElement( final String path )
+  {
+    final String key = SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+    return ourGraphs.computeIfAbsent( key, k -> new CCaseVersionGraph() );
+  }
+
+  /**
+   * Adds versions which are not in the graph yet. Checked out versions are
+   * always taken anew since their predecessor changes with every checkout.
+   */
+  public synchronized void update( final List<VcsFileRevision> revisions )
+  {
+    for( VcsFileRevision revision : revisions )
+    {
+      if( !(revision instanceof CCaseFileRevision) )
+        continue;
+
+      final String id = normalize( revision.getRevisionNumber().asString() );
+      if( id.isEmpty() || (myNodes.containsKey( id ) && !id.endsWith( CHECKEDOUT_SIG )) )
+        continue;
+
+      final CCaseFileRevision ccRevision = (CCaseFileRevision)revision;
+      final Node node = new Node( id, ccRevision.getPredecessor(),
+                                  CCaseHistoryParser.BRANCH_COMMAND_SIG.equals( ccRevision.getAction() ) );
+      myNodes.put( id, node );
+
+      //  The predecessor of the first version on a branch is the version the
+      //  branch was created from. Branch names extend the name of the parent
+      //  branch, which keeps the graph free of cycles.
+      if( node.predecessor != null )
+      {
+        final String predecessorBranch = getBranch( node.predecessor );
+        if( !predecessorBranch.equals( node.branch ) && node.branch.startsWith( predecessorBranch + "/" ) )
+          myBranchPoints.put( node.branch, node.predecessor );
+      }
+    }
+  }
+
+  /**
+   * Lays the revisions out as a tree: versions of the main branch are the
+   * roots, versions of every other branch are grouped under the version the
+   * branch was created from (under the branch record, when it is present).
+   * Revisions keep their relative order; branches whose origin is out of
+   * the list start at the root level.
+   */
+  public synchronized List<TreeItem<VcsFileRevision>> createTree( final List<VcsFileRevision> revisions )
+  {
+    update( revisions );
+
+    final Map<String, TreeItem<VcsFileRevision>> items = new HashMap<>();
+    final Map<String, TreeItem<VcsFileRevision>> branchItems = new HashMap<>();
+    for( VcsFileRevision revision : revisions )
+    {
+      final TreeItem<VcsFileRevision> item = new TreeItem<>( revision );
+      final String id = normalize( revision.getRevisionNumber().asString() );
+      items.put( id, item );
+
+      final Node node = myNodes.get( id );
+      if( node != null && node.isBranch )
+        branchItems.put( id, item );
+    }
+
+    final List<TreeItem<VcsFileRevision>> roots = new ArrayList<>();
+    for( VcsFileRevision revision : revisions )
+    {
+      final String id = normalize( revision.getRevisionNumber().asString() );
+      final TreeItem<VcsFileRevision> item = items.get( id );
+      final Node node = myNodes.get( id );
+
+      TreeItem<VcsFileRevision> parent = null;
+      if( node != null )
+      {
+        if( !node.isBranch )
+          parent = branchItems.get( node.branch );
+
+        if( parent == null )
+        {
+          final String branchPoint = myBranchPoints.get( node.isBranch ? node.id : node.branch );
+          parent = branchPoint == null ? null : items.get( branchPoint );
+        }
+      }
+
+      if( parent != null && parent != item )
+        parent.addChild( item );
+      else
+        roots.add( item );
+    }
+    return roots;
+  }
+
+  /**
+   * Brings "@@\main\dev\3", "\main\dev\3" and "/main/dev/3" to the same form.
+   */
+  static String normalize( String version )
+  {
+    if( version == null )
+      return "";
+    final int idx = version.indexOf( VERSION_DELIM );
+    if( idx != -1 )
+      version = version.substring( idx + VERSION_DELIM.length() );
+    version = version.replace( '\\', '/' );
+    if( version.endsWith( "/" ) )
+      version = version.substring( 0, version.length() - 1 );
+    return version;
+  }
+
+  private static String getBranch( final String id )
+  {
+    final int idx = id.lastIndexOf( '/' );
+    return idx <= 0 ? "" : id.substring( 0, idx );
+  }
+
+  private static class Node
+  {
+    final String id;
+    final String branch;
+    @Nullable final String predecessor;
+    final boolean isBranch;
+
+    Node( final String id, @Nullable final String predecessor, final boolean isBranch )
+    {
+      this.id = id;
+      this.isBranch = isBranch;
+      this.predecessor = predecessor == null || predecessor.isEmpty() ? null : normalize( predecessor );
+
+      //  A branch record names the branch itself, a version lies on the
+      //  branch its name ends with.
+      branch = isBranch ? id : getBranch( id );
+    }
+  }
+}
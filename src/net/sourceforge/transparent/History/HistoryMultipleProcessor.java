@@ -0,0 +1,133 @@
+package net.sourceforge.transparent.History;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ArrayUtil;
+import net.sourceforge.transparent.CleartoolExecutor;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Fetches the last records of history for many elements with a single
+ * "lshistory" invocation per batch of paths. Records are told apart by the
+ * element name printed in the "%n" field; big sets of paths are split into
+ * batches which are run in parallel.
+ */
+public class HistoryMultipleProcessor
+{
+  @NonNls private static final String LIMITED_SWITCH = "-last";
+  @NonNls private static final String VERSION_DELIM = "@@";
+
+  private static final int  CMDLINE_MAX_LENGTH = 1024;
+
+  private final String[] files;
+  private final int myLast;
+  private Map<String, List<CCaseHistoryParser.SubmissionData>> myHistory;
+
+  /**
+   * @param last number of records to fetch per element, 0 - whole history
+   */
+  public HistoryMultipleProcessor( List<String> paths, int last )
+  {
+    files = ArrayUtil.toStringArray(paths);
+    myLast = last;
+  }
+
+  public void execute() throws VcsException
+  {
+    final List<String> switches = new ArrayList<>();
+    if( myLast > 0 )
+    {
+      switches.add( LIMITED_SWITCH );
+      switches.add( String.valueOf( myLast ) );
+    }
+
+    final List<BatchTask> tasks = new ArrayList<>();
+    int currFileIndex = 0;
+    while( currFileIndex < files.length )
+    {
+      int cmdLineLen = 0;
+      final List<String> batch = new ArrayList<>();
+      while( currFileIndex < files.length && cmdLineLen < CMDLINE_MAX_LENGTH )
+      {
+        String path = files[ currFileIndex++ ];
+        batch.add( path );
+        cmdLineLen += path.length() + 1;
+      }
+      tasks.add( new BatchTask( switches, batch ) );
+    }
+
+    myHistory = new HashMap<>();
+    for( Map<String, List<CCaseHistoryParser.SubmissionData>> part : CleartoolExecutor.invokeAll( tasks ) )
+    {
+      myHistory.putAll( part );
+    }
+  }
+
+  /**
+   * @return records of the element newest first, or null if cleartool reported
+   *         nothing for it (e.g. it is not a vob object).
+   */
+  @Nullable
+  public List<CCaseHistoryParser.SubmissionData> getHistory( String path )
+  {
+    return myHistory.get( path );
+  }
+
+  @Nullable
+  public String getLastVersion( String path )
+  {
+    final List<CCaseHistoryParser.SubmissionData> history = myHistory.get( path );
+    return history == null || history.isEmpty() ? null : history.get( 0 ).version;
+  }
+
+  private static String toKey( String path )
+  {
+    if( path.endsWith( VERSION_DELIM ) )
+      path = path.substring( 0, path.length() - VERSION_DELIM.length() );
+    path = path.replace( '\\', '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  private static class BatchTask implements CleartoolExecutor.Task<Map<String, List<CCaseHistoryParser.SubmissionData>>>
+  {
+    private final List<String> mySwitches;
+    private final List<String> myPaths;
+
+    BatchTask( final List<String> switches, final List<String> paths )
+    {
+      mySwitches = switches;
+      myPaths = paths;
+    }
+
+    @Override
+    public Map<String, List<CCaseHistoryParser.SubmissionData>> run()
+    {
+      final Map<String, String> pathsByKey = new HashMap<>();
+      for( String path : myPaths )
+      {
+        pathsByKey.put( toKey( path ), path );
+      }
+
+      final Map<String, List<CCaseHistoryParser.SubmissionData>> result = new HashMap<>();
+      final String errors = CCaseHistoryProvider.runHistoryCommand( mySwitches, myPaths, data -> {
+        final String path = data.element == null ? null : pathsByKey.get( toKey( data.element ) );
+        if( path == null )
+        {
+          TransparentVcs.LOG.info( "History record for unexpected element: " + data.element );
+          return;
+        }
+        final List<CCaseHistoryParser.SubmissionData> history = result.computeIfAbsent( path, k -> new ArrayList<>() );
+        data.order = history.size();
+        history.add( data );
+      });
+
+      if( errors.length() > 0 )
+        TransparentVcs.LOG.info( errors );
+      return result;
+    }
+  }
+}
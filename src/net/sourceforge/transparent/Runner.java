@@ -18,15 +18,29 @@ public class Runner
   private static final boolean DEBUG = false;
   private boolean successfull;
   public String workingDir = null;
+  /**
+   * If set, every line of the standard output is passed here as soon as it
+   * is read instead of being accumulated; {@link #getOutput()} then contains
+   * only the error stream.
+   */
+  public com.intellij.util.Consumer<String> outputListener = null;
   private String myOutput;
+  private volatile Process myProcess;
+  private volatile boolean myCancelled;
 
   private static class Consumer implements Runnable
   {
     private final StringBuilder _buffer = new StringBuilder();
     private final BufferedReader _reader;
+    private final com.intellij.util.Consumer<String> _listener;
 
     public Consumer(InputStream inputStream) {
+      this(inputStream, null);
+    }
+
+    public Consumer(InputStream inputStream, com.intellij.util.Consumer<String> listener) {
        _reader = new BufferedReader(new InputStreamReader(inputStream));
+       _listener = listener;
     }
 
     public void run() {
@@ -34,6 +48,10 @@ public class Runner
         String line;
         while ((line = _reader.readLine()) != null) {
           if (DEBUG) System.out.println("      " + line);
+          if (_listener != null) {
+            _listener.consume(line);
+            continue;
+          }
           if (_buffer.length() != 0) _buffer.append("\n");
           _buffer.append(line);
         }
@@ -72,9 +90,9 @@ public class Runner
     return buf.toString();
   }
 
-  private static String consumeProcessOutputs(Process process) throws InterruptedException
+  private static String consumeProcessOutputs(Process process, com.intellij.util.Consumer<String> listener) throws InterruptedException
   {
-    Consumer outputConsumer = new Consumer(process.getInputStream());
+    Consumer outputConsumer = new Consumer(process.getInputStream(), listener);
     Consumer errorConsumer =  new Consumer(process.getErrorStream());
     final Future<?> errorDone = ApplicationManager.getApplication().executeOnPooledThread(errorConsumer);
     outputConsumer.run();
@@ -146,17 +164,37 @@ public class Runner
    }
 
   private boolean execProcess(String[] command) throws IOException, InterruptedException {
+    if (myCancelled) {
+      myOutput = "";
+      return false;
+    }
     final Process process = createProcess(command);
+    myProcess = process;
     try {
-      myOutput = consumeProcessOutputs(process);
+      if (myCancelled) process.destroy();
+
+      myOutput = consumeProcessOutputs(process, outputListener);
       final int retCode = process.waitFor();
       return retCode == 0;
     }
     finally {
+      myProcess = null;
       ProcessCloseUtil.close(process);
     }
   }
 
+  /**
+   * Stops the command from another thread: the process is destroyed if it
+   * is running and is not started if it is not yet. The command then fails.
+   */
+  public void cancel() {
+    myCancelled = true;
+    final Process process = myProcess;
+    if (process != null) process.destroy();
+  }
+
+  public boolean isCancelled() {  return myCancelled;  }
+
 
   public String getOutput() {  return myOutput;   }
 
@@ -11,6 +11,7 @@ import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
@@ -29,10 +30,14 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.HashSet;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.Annotations.CCaseAnnotationProvider;
+import net.sourceforge.transparent.Annotations.CCaseBackgroundAnnotator;
 import net.sourceforge.transparent.ChangeManagement.CCaseChangeProvider;
 import net.sourceforge.transparent.ChangeManagement.TransparentI;
 import net.sourceforge.transparent.Checkin.CCaseCheckinEnvironment;
 import net.sourceforge.transparent.Checkin.CCaseRollbackEnvironment;
+import net.sourceforge.transparent.Checkin.CheckinMultipleProcessor;
+import net.sourceforge.transparent.Checkin.IdenticalContentDetector;
+import net.sourceforge.transparent.Checkin.UndoCheckoutMultipleProcessor;
 import net.sourceforge.transparent.History.CCaseDiffProvider;
 import net.sourceforge.transparent.History.CCaseHistoryProvider;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
@@ -83,6 +88,7 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   //  the presence of this substring in the error message.
   @NonNls private static final String ALREADY_CHECKEDOUT_SIG = "already checked out";
   @NonNls private static final String NOT_A_VOB_OBJECT_SIG = "Not a vob object";
+  @NonNls private static final String IDENTICAL_CONTENT_SIG = "version with data identical to";
 
   private final BaseOrUCM myBaseOrUCM;
 
@@ -233,6 +239,10 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
     addIgnoredFiles();
 
+    //  Starts listening to editors; files are annotated only if the option
+    //  is on, which may be changed at any time.
+    CCaseBackgroundAnnotator.getInstance( myProject );
+
     if (myActivatePolicyCalculateUCM) {
       final CCaseSharedConfig sharedConfig = CCaseSharedConfig.getInstance(myProject);
       sharedConfig.setUcmMode(Boolean.TRUE.equals(myBaseOrUCM.isUCMByRoots()));
@@ -252,7 +262,7 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   {
     LocalFileSystem.getInstance().removeVirtualFileListener( listener );
     CommandProcessor.getInstance().removeCommandListener( (CommandListener)listener );
-    ContentRevisionFactory.detachListeners();
+    ContentRevisionFactory.getInstance( myProject ).clear();
   }
 
   public void offlineModeChanged()
@@ -549,6 +559,136 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     }
   }
 
+  /**
+   * Checks in many files with one comment, several files per "ci" command.
+   * Hijacked files are checked out first (keeping their content), the same
+   * way {@link #checkinFile} does it; errors are reported per file.
+   */
+  public void checkinFiles( Collection<FilePath> paths, String comment, List<VcsException> errors )
+  {
+    FileStatusManager fsmgr = FileStatusManager.getInstance( myProject );
+    final Map<String, FilePath> filesByPath = new LinkedHashMap<>();
+    for( FilePath path : paths )
+    {
+      final File ioFile = path.getIOFile();
+      final VirtualFile vFile = VcsUtil.getVirtualFile( ioFile );
+      if(( vFile != null ) && (fsmgr.getStatus( vFile ) == FileStatus.HIJACKED) && isCheckInToUseHijack() )
+      {
+        try
+        {
+          checkoutFile( ioFile, true, comment );
+        }
+        catch( Throwable e )
+        {
+          handleException( e, vFile, errors );
+          continue;
+        }
+      }
+      filesByPath.put( ioFile.getAbsolutePath(), path );
+    }
+    if( filesByPath.isEmpty() )
+      return;
+
+    //  Without "-identical" an unchanged file fails in "ci" and its checkout
+    //  is cancelled afterwards; such files are found locally and cancelled
+    //  at once instead.
+    if( !config.useIdenticalSwitch )
+    {
+      final List<FilePath> identical = new ArrayList<>();
+      for( String path : IdenticalContentDetector.findIdentical( myProject, filesByPath.keySet() ) )
+      {
+        identical.add( filesByPath.remove( path ) );
+      }
+      undoCheckoutFiles( identical, errors );
+      if( filesByPath.isEmpty() )
+        return;
+    }
+
+    CheckinMultipleProcessor processor = new CheckinMultipleProcessor( filesByPath.keySet(), comment, config.useIdenticalSwitch );
+    processor.execute();
+    CCaseCheckoutInfoCache.getInstance( myProject ).invalidate( filesByPath.keySet() );
+
+    for( Map.Entry<String, String> entry : processor.getErrors().entrySet() )
+    {
+      final File ioFile = filesByPath.get( entry.getKey() ).getIOFile();
+      final VirtualFile vFile = VcsUtil.getVirtualFile( ioFile );
+      final String message = entry.getValue();
+
+      //  Without "-identical" the unchanged file is just not checked in.
+      if( !config.useIdenticalSwitch && message.contains( IDENTICAL_CONTENT_SIG ) )
+      {
+        undoCheckoutFile( vFile, ioFile, errors );
+        continue;
+      }
+
+      if( isMergeConflictMessage( message ) && vFile != null )
+        vFile.putUserData( MERGE_CONFLICT, true );
+
+      handleException( new ClearCaseException( message ), vFile, errors );
+    }
+  }
+
+  /**
+   * Checks out many files with one comment, several files per "co" command
+   * in parallel sessions. A file which failed but turns out to be checked
+   * out already is not an error.
+   */
+  public void checkoutFiles( Collection<VirtualFile> files, String comment, List<VcsException> errors ) throws VcsException
+  {
+    final Map<String, VirtualFile> filesByPath = new LinkedHashMap<>();
+    for( VirtualFile file : files )
+    {
+      filesByPath.put( new File( file.getPath() ).getAbsolutePath(), file );
+    }
+    if( filesByPath.isEmpty() )
+      return;
+
+    CheckoutMultipleProcessor processor = new CheckoutMultipleProcessor( filesByPath.keySet(), comment, config.checkoutReserved );
+    try
+    {
+      processor.execute();
+    }
+    finally
+    {
+      CCaseCheckoutInfoCache.getInstance( myProject ).invalidate( filesByPath.keySet() );
+    }
+
+    final Map<String, String> failed = processor.getErrors();
+    if( !failed.isEmpty() )
+    {
+      final StatusMultipleProcessor status = new StatusMultipleProcessor( new ArrayList<>( failed.keySet() ) );
+      try
+      {
+        status.execute();
+        for( String path : status.getCheckoutFiles() )
+        {
+          failed.keySet().removeIf( failedPath -> FileUtil.pathsEqual( failedPath, path ) );
+        }
+      }
+      catch( ClearCaseException e )
+      {
+        // ignore and show the checkout errors
+      }
+      for( Map.Entry<String, String> entry : failed.entrySet() )
+      {
+        handleException( new ClearCaseException( entry.getValue() ), filesByPath.get( entry.getKey() ), errors );
+      }
+    }
+
+    //  In the case we did not manage to parse out the activity or we deal with
+    //  non-UCM views, do not disturb the views manager.
+    CCaseViewsManager viewsManager = CCaseViewsManager.getInstance( myProject );
+    for( Map.Entry<String, VirtualFile> entry : filesByPath.entrySet() )
+    {
+      String activity = processor.getActivity( entry.getKey() );
+      if( activity != null && !entry.getValue().isDirectory() )
+      {
+        viewsManager.addFile2Changelist( entry.getValue().getPath(), activity );
+        viewsManager.checkChangedActivityForView( entry.getValue().getPath(), activity );
+      }
+    }
+  }
+
   public boolean checkoutFile( VirtualFile file, boolean keepHijacked, String comment ) throws VcsException
   {
     File ioFile = new File( file.getPath() );
@@ -599,6 +739,31 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     undoCheckoutFile( null, file, errors );
   }
 
+  /**
+   * Cancels checkouts of many files, several files per "unco" command.
+   */
+  public void undoCheckoutFiles( Collection<FilePath> paths, List<VcsException> errors )
+  {
+    if( paths.isEmpty() )
+      return;
+
+    final Map<String, FilePath> filesByPath = new LinkedHashMap<>();
+    for( FilePath path : paths )
+    {
+      filesByPath.put( path.getIOFile().getAbsolutePath(), path );
+    }
+
+    UndoCheckoutMultipleProcessor processor = new UndoCheckoutMultipleProcessor( filesByPath.keySet() );
+    processor.execute();
+    CCaseCheckoutInfoCache.getInstance( myProject ).invalidate( filesByPath.keySet() );
+
+    for( Map.Entry<String, String> entry : processor.getErrors().entrySet() )
+    {
+      final VirtualFile vFile = VcsUtil.getVirtualFile( filesByPath.get( entry.getKey() ).getIOFile() );
+      handleException( new ClearCaseException( entry.getValue() ), vFile, errors );
+    }
+  }
+
   private void undoCheckoutFile( VirtualFile vFile, File ioFile, List<VcsException> errors )
   {
     try
@@ -613,35 +778,21 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   public void addFile( VirtualFile file, @NonNls String comment, List<VcsException> errors )
   {
-    File ioFile = new File( file.getPath() );
+    DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( this, comment );
+    planAddFile( planner, new File( file.getPath() ), comment );
+    planner.execute( errors );
+  }
+
+  /**
+   * Plans adding the file into its (checked out by the planner) folder.
+   */
+  public void planAddFile( DirectoryCheckinPlanner planner, final File ioFile, @NonNls String comment )
+  {
     File ioParent = ioFile.getParentFile();
     if( ioParent != null )
     {
-      String parentComment = addToComment( comment, "Adding " + file.getName() );
-
-      if( StringUtil.isEmpty( comment ) )
-        comment = "Initial Checkin";
-
-      VcsException error = tryToCheckout( ioParent, parentComment, false);
-      if( error != null )
-      {
-        error.setVirtualFile( file );
-        errors.add( error );
-        return;
-      }
-
-      addFileToCheckedoutFolder( ioFile, comment, errors );
-
-      //  All other exceptions are currently non-workaroundable and
-      //  cause the complete operation failure.
-      try
-      {
-        getClearCase().checkIn( ioParent, parentComment );
-      }
-      catch( ClearCaseException ccExc )
-      {
-        handleException( ccExc, file, errors );
-      }
+      final String fileComment = StringUtil.isEmpty( comment ) ? "Initial Checkin" : comment;
+      planner.add( ioFile, "Adding " + ioFile.getName(), errors -> addFileToCheckedoutFolder( ioFile, fileComment, errors ), ioParent );
     }
   }
 
@@ -660,135 +811,125 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   public void removeFile( final File file, final String comment, final List<VcsException> errors )
   {
-    try
-    {
-      Runnable action = () -> {
-        //  We can remove only non-checkedout files???
-        Status status = getFileStatus( file );
-        if( status == Status.CHECKED_OUT )
-          undoCheckoutFile( file, errors );
-
-        File ioParent = file.getParentFile();
-        if( ioParent.exists() )
-        {
-          @NonNls String deleteComment = "Deleting " + file.getName();
-          String parentComment = addToComment( comment, deleteComment );
-
-
-          VcsException error = tryToCheckout( ioParent, parentComment, false);
-          if( error != null )
-          {
-            errors.add( error );
-            return;
-          }
+    DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( this, comment );
+    planRemoveFile( planner, file, comment );
+    planner.execute( errors );
+  }
 
-          //  All other exceptions are currently non-workaroundable and
-          //  cause the complete operation failure.
-          try
-          {
-            getClearCase().delete( file, StringUtil.isNotEmpty( comment ) ? comment : deleteComment );
-            getClearCase().checkIn( ioParent, parentComment );
-          }
-          catch( ClearCaseException ccExc )
-          {
-            VcsException e = new VcsException( ccExc.getMessage() );
-            errors.add( e );
-          }
-        }
-      };
-      executeAndHandleOtherFileInTheWay( file, action );
-    }
-    catch (Throwable e)
-    {
-      handleException( e, (VirtualFile)null, errors );
-    }
+  /**
+   * Plans removing the element from its (checked out by the planner) folder.
+   */
+  public void planRemoveFile( DirectoryCheckinPlanner planner, final File file, final String comment )
+  {
+    final File ioParent = file.getParentFile();
+    final boolean parentExists = ioParent != null && ioParent.exists();
+    @NonNls final String deleteComment = "Deleting " + file.getName();
+
+    DirectoryCheckinPlanner.Action action = errors -> executeAndHandleOtherFileInTheWay( file, () -> {
+      //  We can remove only non-checkedout files???
+      Status status = getFileStatus( file );
+      if( status == Status.CHECKED_OUT )
+        undoCheckoutFile( file, errors );
+
+      if( parentExists )
+        getClearCase().delete( file, StringUtil.isNotEmpty( comment ) ? comment : deleteComment );
+    });
+
+    if( parentExists )
+      planner.add( file, deleteComment, action, ioParent );
+    else
+      planner.add( file, deleteComment, action );
   }
 
   public void renameAndCheckInFile( final File oldFile, final String newName,
                                     String comment, final List<VcsException> errors )
+  {
+    DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( this, comment );
+    planRenameAndCheckInFile( planner, oldFile, newName, comment );
+    planner.execute( errors );
+  }
+
+  /**
+   * Plans renaming the element within its (checked out by the planner) folder.
+   */
+  public void planRenameAndCheckInFile( DirectoryCheckinPlanner planner, final File oldFile, final String newName,
+                                        String comment )
   {
     final File newFile = new File( oldFile.getParent(), newName );
-    try
-    {
-      @NonNls final String modComment = StringUtil.isEmpty(comment) ? "Renamed " + oldFile.getName() + " to " + newName : comment;
+    final File ioParent = oldFile.getParentFile();
+    if( !ioParent.exists() )
+      return;
 
-      Runnable action = () -> {
-        File ioParent = oldFile.getParentFile();
-        if( ioParent.exists() )
-        {
-          renameFile( newFile, oldFile );
-          if( !oldFile.isDirectory() )
-            checkinFile( oldFile, modComment, errors );
+    @NonNls final String description = "Renamed " + oldFile.getName() + " to " + newName;
+    final String modComment = StringUtil.isEmpty(comment) ? description : comment;
 
-          getClearCase().checkOut( ioParent, config.checkoutReserved, modComment, true);
-          //getClearCase().checkOut( oldFile, config.checkoutReserved, modComment, false);
-          getClearCase().move( oldFile, newFile, modComment );
-          getClearCase().checkIn( ioParent, modComment );
-        }
-      };
-      executeAndHandleOtherFileInTheWay(oldFile, action );
-    }
-    catch( Throwable e )
-    {
-      handleException( e, newFile, errors );
-    }
+    planner.add( newFile, description, errors -> executeAndHandleOtherFileInTheWay( oldFile, () -> {
+      renameFile( newFile, oldFile );
+      if( !oldFile.isDirectory() )
+        checkinFile( oldFile, modComment, errors );
+
+      getClearCase().move( oldFile, newFile, modComment );
+    }), ioParent );
   }
 
   public void moveRenameAndCheckInFile( String filePath, String newParentPath, String newName,
                                        String comment, final List<VcsException> errors )
+  {
+    DirectoryCheckinPlanner planner = new DirectoryCheckinPlanner( this, comment );
+    planMoveRenameAndCheckInFile( planner, filePath, newParentPath, newName, comment );
+    planner.execute( errors );
+  }
+
+  /**
+   * Plans moving the element between its old and new (both checked out by
+   * the planner) folders.
+   */
+  public void planMoveRenameAndCheckInFile( DirectoryCheckinPlanner planner, String filePath, String newParentPath,
+                                            String newName, String comment )
   {
     final File oldFile = new File( filePath );
     final File newFile = new File( newParentPath, newName );
 
-    try
-    {
-      @NonNls final String modComment = StringUtil.isEmpty(comment) ? "Moved " + filePath + " to " + newName : comment;
-
-      Runnable action = () -> {
-        renameFile( newFile, oldFile );
-        if( !oldFile.isDirectory() )
-        {
-          checkinFile( oldFile, modComment, errors );
-        }
+    @NonNls final String description = "Moved " + filePath + " to " + newName;
+    final String modComment = StringUtil.isEmpty(comment) ? description : comment;
 
-        //  Continue transaction only if there was no error on the previous
-        //  step.
-        if( errors.size() == 0 )
-        {
-          VcsException error;
-          try
+    planner.add( newFile, description, errors -> {
+      final List<VcsException> moveErrors = new ArrayList<>();
+      try
+      {
+        executeAndHandleOtherFileInTheWay( oldFile, () -> {
+          renameFile( newFile, oldFile );
+          if( !oldFile.isDirectory() )
           {
-            error = tryToCheckout( newFile.getParentFile(), modComment, false);
-            if( error != null )
-              throw error;
-            error = tryToCheckout( oldFile.getParentFile(), modComment, false);
-            if( error != null )
-              throw error;
+            checkinFile( oldFile, modComment, moveErrors );
+          }
 
+          //  Continue transaction only if there was no error on the previous
+          //  step.
+          if( moveErrors.isEmpty() )
             getClearCase().move( oldFile, newFile, modComment );
+        });
+      }
+      catch( Throwable e )
+      {
+        handleException( e, newFile, moveErrors );
+      }
 
-            checkinFile( newFile.getParentFile(), null, errors );
-            checkinFile( oldFile.getParentFile(), null, errors );
-          }
-          catch( VcsException e )
-          {
-            handleException( e, newFile, errors );
-          }
-        }
-      };
-
-      executeAndHandleOtherFileInTheWay( oldFile, action );
       //  In the case when everything went to the hell, just keep stuff on
       //  its own place.
-      if( errors.size() > 0 )
+      if( !moveErrors.isEmpty() && oldFile.exists() )
       {
-        renameFile( oldFile, newFile );
+        try
+        {
+          renameFile( oldFile, newFile );
+        }
+        catch( Throwable e )
+        {
+          handleException( e, newFile, moveErrors );
+        }
       }
-    }
-    catch( Throwable e )
-    {
-      handleException( e, newFile, errors );
-    }
+      errors.addAll( moveErrors );
+    }, newFile.getParentFile(), oldFile.getParentFile() );
   }
 
   private static void executeAndHandleOtherFileInTheWay( File targetFile, Runnable command )
@@ -877,7 +1018,7 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
    * manually or as the result of the previously failed operation.
    * Ignore the error "... is already checked out..." and store all others. 
    */
-  private VcsException tryToCheckout(File file, String comment, boolean noData)
+  VcsException tryToCheckout(File file, String comment, boolean noData)
   {
     VcsException error = null;
     try
@@ -898,10 +1039,14 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
   public Status  getFileStatus( VirtualFile file ) {  return getFileStatus(new File(file.getPresentableUrl()));  }
   public Status  getFileStatus( File file )        {  return getClearCase().getStatus( file );  }
 
-  public static CheckedOutStatus getCheckedOutStatus( File file )
+  public CheckedOutStatus getCheckedOutStatus( File file )
   {
+    CheckoutInfoMultipleProcessor.CheckoutInfo info = CCaseCheckoutInfoCache.getInstance( myProject ).getInfo( file );
+    if( info != null )
+      return info.getStatus();
+
     @NonNls Runner runner = new Runner();
-    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-fmt", "%Rf", "-directory", file.getAbsolutePath()}, true);
+    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-cview", "-fmt", "%Rf", "-directory", file.getAbsolutePath()}, true);
 
     if (!runner.isSuccessfull())
       return CheckedOutStatus.NOT_CHECKED_OUT;
@@ -915,10 +1060,14 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     return CheckedOutStatus.NOT_CHECKED_OUT;
   }
 
-  public static String getCheckoutComment(File file)
+  public String getCheckoutComment(File file)
   {
+    CheckoutInfoMultipleProcessor.CheckoutInfo info = CCaseCheckoutInfoCache.getInstance( myProject ).getInfo( file );
+    if( info != null )
+      return info.getComment();
+
     @NonNls Runner runner = new Runner();
-    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-fmt", "%c", "-directory", file.getAbsolutePath()}, true);
+    runner.run(new String[]{CLEARTOOL_CMD, "lscheckout", "-cview", "-fmt", "%c", "-directory", file.getAbsolutePath()}, true);
 
     String output = runner.getOutput();
 
@@ -955,7 +1104,15 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
 
   public static String cleartoolWithOutput(@NonNls String... subcmd)
   {
-    Runner runner = new Runner();
+    return cleartoolWithOutput(new Runner(), subcmd);
+  }
+
+  /**
+   * Runs the command with the given runner, so that the caller may cancel
+   * it or check whether it succeeded.
+   */
+  public static String cleartoolWithOutput(Runner runner, @NonNls String... subcmd)
+  {
     runner.run(Runner.getCommand(CLEARTOOL_CMD, subcmd), true);
     return runner.getOutput();
   }
@@ -975,13 +1132,13 @@ public class TransparentVcs extends AbstractVcs implements ProjectComponent, JDO
     errors.add(vcsE);
   }
 
-  private static void handleException( Throwable e, File file, List<VcsException> errors )
+  static void handleException( Throwable e, File file, List<VcsException> errors )
   {
     VirtualFile vFile = VcsUtil.getVirtualFile( file );
     handleException( e, vFile, errors );
   }
 
-  private static String addToComment( String comment, @NonNls String addedText )
+  static String addToComment( String comment, @NonNls String addedText )
   {
     return StringUtil.isNotEmpty( comment ) ? comment + '\n' + addedText : addedText;
   }
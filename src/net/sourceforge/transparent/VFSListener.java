@@ -12,6 +12,7 @@ import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vfs.*;
 import com.intellij.vcsUtil.VcsUtil;
 import net.sourceforge.transparent.ChangeManagement.CCaseChangeProvider;
+import net.sourceforge.transparent.ChangeManagement.CCaseCheckoutContentTracker;
 import net.sourceforge.transparent.exceptions.ClearCaseException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -71,6 +72,9 @@ public class VFSListener implements CommandListener, VirtualFileListener {
     host.removedFolders.remove(path);
     host.deletedFiles.remove(path);
     host.deletedFolders.remove(path);
+
+    //  A new element may appear at the path of a removed one.
+    CCaseContentStore.forgetElement(path);
   }
 
   private void toBeCreated(VirtualFileEvent event, VirtualFile newFile) {
@@ -108,6 +112,7 @@ public class VFSListener implements CommandListener, VirtualFileListener {
 
   @Override
   public void beforeFileDeletion(@NotNull VirtualFileEvent event) {
+    CCaseContentStore.forgetElement(event.getFile().getPath());
     try {
       if (!isIgnoredEvent(event)) {
         performDeleteFile(event.getFile());
@@ -186,6 +191,8 @@ public class VFSListener implements CommandListener, VirtualFileListener {
     VirtualFile file = event.getFile();
     String oldName = file.getPath();
     String newName = event.getNewParent().getPath() + "/" + file.getName();
+    CCaseContentStore.forgetElement(oldName);
+    CCaseContentStore.forgetElement(newName);
 
     //  If the file is moved into Vss-versioned module, then it is a simple
     //  movement. Otherwise (move into non-versioned module), mark it
@@ -196,7 +203,7 @@ public class VFSListener implements CommandListener, VirtualFileListener {
       //  Clear the cache of the content revisions for this file.
       //  This will make possible to reread the correct version content
       //  after the referred FilePath/VirtualFile is changed
-      ContentRevisionFactory.clearCacheForFile(file.getPath());
+      ContentRevisionFactory.getInstance(project).clearCacheForFile(file.getPath());
     }
     else {
       performDeleteFile(file);
@@ -229,7 +236,9 @@ public class VFSListener implements CommandListener, VirtualFileListener {
       //  On every change of the "Writable" property clear the cache of the
       //  content revisions. This will make possible to reread the correct
       //  version content after series of checkins/checkouts.
-      ContentRevisionFactory.clearCacheForFile(file.getPath());
+      ContentRevisionFactory.getInstance(project).clearCacheForFile(file.getPath());
+      CCaseCheckoutContentTracker.getInstance(project).invalidate(file.getPath());
+      CCaseCheckoutInfoCache.getInstance(project).invalidate(file.getPath());
 
       //  If the file is checked in or reverted (either within IDEA or externally
       //  in the CCase Explorer) we need to clear its internally kept activity
@@ -239,9 +248,12 @@ public class VFSListener implements CommandListener, VirtualFileListener {
       viewsManager.removeFileFromActivity(file.getPath());
     }
     else if (event.getPropertyName().equals(VirtualFile.PROP_NAME)) {
+      String parentDir = file.getParent().getPath() + "/";
+      CCaseContentStore.forgetElement(parentDir + event.getOldValue());
+      CCaseContentStore.forgetElement(parentDir + event.getNewValue());
+
       FileStatus status = FileStatusManager.getInstance(project).getStatus(file);
       if (status != FileStatus.ADDED && status != FileStatus.UNKNOWN && status != FileStatus.IGNORED) {
-        String parentDir = file.getParent().getPath() + "/";
         String oldName = parentDir + event.getOldValue();
         String newName = parentDir + event.getNewValue();
 
@@ -0,0 +1,71 @@
+package net.sourceforge.transparent.actions;
+
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import net.sourceforge.transparent.ChangeManagement.CCaseCheckoutContentTracker;
+import net.sourceforge.transparent.TransparentVcs;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancels all checkouts whose files are identical to their predecessors,
+ * several files per "unco" command.
+ */
+public class UndoUnmodifiedCheckoutsAction extends VcsAction
+{
+  @NonNls private final static String ACTION_NAME = "Undo Unmodified Checkouts";
+
+  public void update( AnActionEvent e )
+  {
+    super.update( e );
+
+    //  The checkouts are collected only when the action is performed, the
+    //  scan of all the changed files is too slow for the EDT.
+    Project project = getEventProject( e );
+    TransparentVcs host = getHost( e );
+    e.getPresentation().setEnabled( host != null && ProjectLevelVcsManager.getInstance( project ).checkVcsIsActive( host ) );
+  }
+
+  protected void execute( AnActionEvent e, List<VcsException> errors )
+  {
+    Project project = getEventProject( e );
+    if( project == null )
+      return;
+
+    List<VirtualFile> files = getUnmodifiedCheckouts( project );
+    if( files.isEmpty() )
+      return;
+
+    List<FilePath> paths = new ArrayList<>();
+    for( VirtualFile file : files )
+    {
+      paths.add( VcsUtil.getFilePath( file ) );
+    }
+
+    TransparentVcs.getInstance( project ).undoCheckoutFiles( paths, errors );
+    VcsDirtyScopeManager.getInstance( project ).filesDirty( files, null );
+  }
+
+  private static List<VirtualFile> getUnmodifiedCheckouts( Project project )
+  {
+    ChangeListManager mgr = ChangeListManager.getInstance( project );
+    List<VirtualFile> files = new ArrayList<>();
+    for( VirtualFile file : mgr.getAffectedFiles() )
+    {
+      if( mgr.getStatus( file ) == CCaseCheckoutContentTracker.UNMODIFIED_CHECKOUT )
+        files.add( file );
+    }
+    return files;
+  }
+
+  protected String getActionName( AnActionEvent e ) { return ACTION_NAME; }
+}
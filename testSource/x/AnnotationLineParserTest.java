@@ -0,0 +1,83 @@
+package x;
+
+import com.intellij.openapi.vcs.VcsException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.Annotations.AnnotationLineParser;
+
+public class AnnotationLineParserTest extends TestCase
+{
+  public void testDittoValuesAreTakenFromLineAbove() throws VcsException {
+    final String output = "2011-03-28 #|# irengrig         #|# \\main\\3                                  #|# \\main\\3 #|# class A {\n" +
+                          "  .        #|#  .               #|# .                                        #|# . #|#   int a;\n" +
+                          "2011-04-01 #|# lloix            #|# \\main\\4                                  #|# \\main\\4 #|# }";
+    final AnnotationLineParser parser = new AnnotationLineParser();
+
+    final int secondLine = output.indexOf( '\n' ) + 1;
+    final int thirdLine = output.indexOf( '\n', secondLine ) + 1;
+
+    parser.parseLine( output, 0, secondLine - 1 );
+    Assert.assertEquals( "2011-03-28", parser.getDate() );
+    Assert.assertEquals( "irengrig", parser.getCommitter() );
+    Assert.assertEquals( "\\main\\3", parser.getRevision() );
+    Assert.assertEquals( "class A {", output.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+    final String revision = parser.getRevision();
+
+    parser.parseLine( output, secondLine, thirdLine - 1 );
+    Assert.assertSame( revision, parser.getRevision() );
+    Assert.assertEquals( "irengrig", parser.getCommitter() );
+    Assert.assertEquals( "  int a;", output.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+
+    parser.parseLine( output, thirdLine, output.length() );
+    Assert.assertEquals( "2011-04-01", parser.getDate() );
+    Assert.assertEquals( "lloix", parser.getCommitter() );
+    Assert.assertEquals( "\\main\\4", parser.getRevision() );
+    Assert.assertEquals( "}", output.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+  }
+
+  public void testSourceMayContainDelimiterOrBeEmpty() throws VcsException {
+    final AnnotationLineParser parser = new AnnotationLineParser();
+    String line = "2011-03-28 #|# irengrig #|# \\main\\3 #|# \\main\\3 #|# ";
+    parser.parseLine( line, 0, line.length() );
+    Assert.assertEquals( "", line.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+
+    line = "2011-03-28 #|# irengrig #|# \\main\\3 #|# \\main\\3 #|# a #|# b";
+    parser.parseLine( line, 0, line.length() );
+    Assert.assertEquals( "a #|# b", line.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+  }
+
+  public void testParsersDoNotShareState() throws VcsException {
+    final String first = "2011-03-28 #|# irengrig #|# \\main\\3 #|# \\main\\3 #|# a";
+    final String ditto = ". #|# . #|# . #|# . #|# b";
+    final AnnotationLineParser parser = new AnnotationLineParser();
+    parser.parseLine( first, 0, first.length() );
+
+    final AnnotationLineParser other = new AnnotationLineParser();
+    other.parseLine( ditto, 0, ditto.length() );
+    Assert.assertNull( other.getRevision() );
+
+    parser.parseLine( ditto, 0, ditto.length() );
+    Assert.assertEquals( "\\main\\3", parser.getRevision() );
+  }
+
+  public void testFullVersionIsNotCut() throws VcsException {
+    final String version = "\\main\\integration\\release_2011_maintenance\\task_1234\\17";
+    final String line = "2011-03-28 #|# irengrig #|# " + version.substring( 0, 40 ) + " #|# " + version + " #|# a";
+    final AnnotationLineParser parser = new AnnotationLineParser();
+    parser.parseLine( line, 0, line.length() );
+    Assert.assertEquals( version.substring( 0, 40 ), parser.getRevision() );
+    Assert.assertEquals( version, parser.getVersion() );
+    Assert.assertEquals( "a", line.substring( parser.getSourceStart(), parser.getSourceEnd() ) );
+  }
+
+  public void testBrokenLineIsReported() {
+    final String line = "2011-03-28 #|# irengrig";
+    try {
+      new AnnotationLineParser().parseLine( line, 0, line.length() );
+      fail();
+    }
+    catch( VcsException e ) {
+      Assert.assertTrue( e.getMessage().contains( line ) );
+    }
+  }
+}
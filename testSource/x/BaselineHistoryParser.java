@@ -0,0 +1,282 @@
+package x;
+
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Consumer;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The lshistory parser as it was before CCaseHistoryParser scanned the log
+ * in one pass, unchanged but for the name; the reference for
+ * {@link CCaseHistoryParserPerformanceTest}.
+ */
+public class BaselineHistoryParser
+{
+  @NonNls public static final String BRANCH_COMMAND_SIG = "create branch";
+  @NonNls public static final String CREATE_ELEM_COMMAND_SIG = "create file element";
+
+  @NonNls private static final String VERSION_DELIM = "@@";
+  @NonNls private static final String[] actions = { CREATE_ELEM_COMMAND_SIG, BRANCH_COMMAND_SIG, "create version", "checkin version" };
+  private static final String FMT = "-fmt";
+
+  private BaselineHistoryParser() {}
+
+  public static class SubmissionData
+  {
+    public SubmissionData(final int order) {
+      this.order = order;
+    }
+
+    public String action;
+    public String element;
+    public String version;
+    public String submitter;
+    public String changeDate;
+    public String comment;
+    public String labels;
+    public int    order;
+  }
+
+  public static ArrayList<SubmissionData> parse( final String content )
+  {
+    final ArrayList<SubmissionData> result = new ArrayList<>();
+    parse( content, result::add );
+    return result;
+  }
+
+  public static void parse( final String content, final Consumer<SubmissionData> consumer )
+  {
+    String[] lines = LineTokenizer.tokenize( content, false );
+
+    final StreamingParser parser = new StreamingParser( consumer );
+    for( String line : lines )
+    {
+      parser.feedLine( line );
+    }
+    parser.finish();
+  }
+
+  /**
+   * Parses the log line by line as it is produced by the cleartool process.
+   * Every record is passed to the consumer as soon as the next record starts,
+   * the last one - upon {@link #finish()}.
+   */
+  public static class StreamingParser
+  {
+    private final LogParseResult myResultHolder;
+    private final FieldsDetector myDetector;
+
+    public StreamingParser( final Consumer<SubmissionData> consumer )
+    {
+      myResultHolder = new LogParseResult( consumer );
+      myDetector = new FieldsDetector();
+    }
+
+    public void feedLine( final String line )
+    {
+      final Field field = myDetector.guess(line);
+      if (field != null) {
+        field.parse(line, myResultHolder);
+      } else {
+        final Field defaultField = myDetector.defaultField();
+        if (defaultField != null) {
+          defaultField.fill(line, myResultHolder);
+        }
+      }
+    }
+
+    public void finish()
+    {
+      myResultHolder.flush();
+    }
+  }
+
+  private static class FieldsDetector {
+    private int myRecentIdx;
+
+    private FieldsDetector() {
+      myRecentIdx = 0;
+    }
+
+    @Nullable
+    public Field guess(final String line) {
+      int guessIdx = (myRecentIdx + 1 == ourFields.length) ? 0 : (myRecentIdx + 1);
+      if (ourFields[guessIdx].acceptString(line)) {
+        myRecentIdx = guessIdx;
+        return ourFields[guessIdx];
+      }
+      for (int i = 0; i < ourFields.length; i++) {
+        final Field field = ourFields[i];
+        if (field.acceptString(line)) {
+          myRecentIdx = i;
+          return field;
+        }
+      }
+      return null;
+    }
+
+    @Nullable
+    public Field defaultField() {
+      int oldRecentIdx = myRecentIdx;
+      // if there was a comment field before
+      if (ourFields[oldRecentIdx].myNum == 5) {
+        myRecentIdx = oldRecentIdx;
+        return ourFields[oldRecentIdx];
+      }
+      return null;
+    }
+  }
+
+  public static void fillParametersVersionOnly(final List<String> list) {
+    list.add(FMT);
+    final StringBuilder sb = new StringBuilder();
+    ourFields[4].append(sb);
+    list.add(sb.toString());
+
+  }
+
+  public static void fillParametersTail(final List<String> list) {
+    list.add(FMT);
+    final StringBuilder sb = new StringBuilder();
+    for (Field field : ourFields) {
+      field.append(sb);
+    }
+    list.add(sb.toString());
+  }
+
+  private static final Field[] ourFields = new Field[] {
+    new Field(0,"\\\"", "\"", "%d") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.createNext();
+        data.changeDate = value == null ? "" : value;
+      }
+    },
+    new Field(1,"\\\"", "\"", "%Fu") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.getCurrent();
+        data.submitter = value == null ? "" : value;
+      }
+    },
+    new Field(2,"\\\"", "\"", "%e") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.getCurrent();
+        data.action = value == null ? "" : value;
+      }
+    },
+    new Field(3,"\\\"", "\"", "%l") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.getCurrent();
+        data.labels = value == null ? "" : value;
+      }
+    },
+    new Field(4,"\\\"", "\"", "%n") {
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        SubmissionData data = iterator.getCurrent();
+        if (data.version != null) {
+          data = iterator.createNext();
+        }
+        final int idx = value == null ? -1 : value.indexOf(VERSION_DELIM);
+        if (idx != -1) {
+          data.element = value.substring(0, idx);
+          data.version = value.substring(idx);
+        } else {
+          data.element = value == null ? "" : value;
+          data.version = "";
+        }
+      }
+    },
+    new Field(5,"\\\"", "\"", "%Nc") {
+      @Override
+      public void parse(String s, CreatingIterator iterator) {
+        super.parse(s, iterator);
+      }
+
+      protected void fill(@Nullable String value, CreatingIterator iterator) {
+        final SubmissionData data = iterator.getCurrent();
+        if (value != null) {
+          data.comment = (data.comment == null) ? value : data.comment + '\n' + value;
+        }
+      }
+    }
+  };
+
+  private abstract static class Field {
+    private final int myNum;
+    private final String myText;
+    private final static String myMagic = "\1";
+
+    public Field(final int num, final String writeWrapper, String readWrapper, final String text) {
+      myNum = num;
+      myText = text;
+    }
+
+    public void append(final StringBuilder sb) {
+      sb.append(myNum);
+      sb.append(myMagic);
+      sb.append(myText);
+      sb.append('\n');
+    }
+
+    public boolean acceptString(final String s) {
+      return StringUtil.startsWithConcatenation(s, String.valueOf(myNum), myMagic);
+    }
+
+    protected abstract void fill(@Nullable final String value, final CreatingIterator iterator);
+
+    @Nullable
+    protected String parseImpl(final String s) {
+      if (acceptString(s)) {
+        final String result = s.substring(2);
+        return result;
+      }
+      return null;
+    }
+
+    public void parse(final String s, final CreatingIterator iterator) {
+      fill(parseImpl(s), iterator);
+    }
+  }
+
+  private interface CreatingIterator {
+    @NotNull SubmissionData getCurrent();
+    @NotNull SubmissionData createNext();
+  }
+
+  private static class LogParseResult implements CreatingIterator {
+    private final Consumer<SubmissionData> myConsumer;
+    private SubmissionData myCurrent;
+    private int myCount;
+
+    private LogParseResult(final Consumer<SubmissionData> consumer) {
+      myConsumer = consumer;
+    }
+
+    @NotNull
+    public SubmissionData getCurrent() {
+      if (myCurrent == null) {
+        myCurrent = new SubmissionData(myCount++);
+      }
+      return myCurrent;
+    }
+
+    @NotNull
+    public SubmissionData createNext() {
+      flush();
+      myCurrent = new SubmissionData(myCount++);
+      return myCurrent;
+    }
+
+    public void flush() {
+      if (myCurrent != null) {
+        final SubmissionData data = myCurrent;
+        myCurrent = null;
+        myConsumer.consume(data);
+      }
+    }
+  }
+}
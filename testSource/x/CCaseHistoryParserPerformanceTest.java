@@ -0,0 +1,67 @@
+package x;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.History.CCaseHistoryParser;
+
+/**
+ * Compares the throughput of CCaseHistoryParser with the parser it replaced
+ * on a generated log of 50000 records (about 9 Mb). Timing depends on the
+ * machine, so the test is skipped unless the JVM is started with
+ * -Dclearcase.performance.tests=true.
+ */
+public class CCaseHistoryParserPerformanceTest extends TestCase
+{
+  private static final String ENABLED_PROPERTY = "clearcase.performance.tests";
+  private static final int RECORDS = 50000;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int ROUNDS = 20;
+  private static final double EXPECTED_SPEEDUP = 5.0;
+
+  public void testFiveTimesFasterThanBaseline() {
+    if (!Boolean.getBoolean(ENABLED_PROPERTY)) return;
+
+    final String log = generateLog(RECORDS);
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      Assert.assertEquals(RECORDS, CCaseHistoryParser.parse(log).size());
+      Assert.assertEquals(RECORDS, BaselineHistoryParser.parse(log).size());
+    }
+
+    //  The best round of each parser is compared, which filters out rounds
+    //  slowed down by GC or by other processes.
+    long baseline = Long.MAX_VALUE;
+    long current = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      BaselineHistoryParser.parse(log);
+      baseline = Math.min(baseline, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      CCaseHistoryParser.parse(log);
+      current = Math.min(current, System.nanoTime() - start);
+    }
+
+    final double speedup = (double)baseline / current;
+    Assert.assertTrue("Expected " + EXPECTED_SPEEDUP + "x, got " + String.format("%.1f", speedup) + "x (" +
+                      baseline / 1000000 + " ms vs " + current / 1000000 + " ms)", speedup >= EXPECTED_SPEEDUP);
+  }
+
+  private static String generateLog(final int records) {
+    final String[] users = { "Irina Chernushina", "John Smith", "Build Robot" };
+    final String[] actions = { "create version", "checkin version", "create branch" };
+    final StringBuilder sb = new StringBuilder(records * 200);
+    for (int i = 0; i < records; i++) {
+      sb.append("0\u0001").append(10 + i % 18).append("-Feb-09.19:").append(10 + i % 50).append(":00\n");
+      sb.append("1\u0001").append(users[i % users.length]).append('\n');
+      sb.append("2\u0001").append(actions[i % actions.length]).append('\n');
+      sb.append("3\u0001").append(i % 10 == 0 ? "(REL_1_0, BUILD_" + i / 10 + ")" : "").append('\n');
+      sb.append("4\u0001C:/views/dev/vob/src/com/company/module/SomeClass.java@@\\main\\dev_branch\\")
+        .append(records - i).append('\n');
+      sb.append("5\u0001related issues: SCR-").append(i).append('\n');
+      if (i % 3 == 0) {
+        sb.append("fixed the problem with the parser\nand added more tests\n");
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -1,10 +1,15 @@
 package x;
 
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.util.TreeItem;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import net.sourceforge.transparent.History.CCaseFileRevision;
 import net.sourceforge.transparent.History.CCaseHistoryParser;
+import net.sourceforge.transparent.History.CCaseVersionGraph;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class CCaseHistoryTest extends TestCase
 {
@@ -34,4 +39,94 @@ public class CCaseHistoryTest extends TestCase
     Assert.assertEquals("create version", changes.get(1).action);
     Assert.assertEquals("04-\u0444\u0435\u0432-09.17:51:32", changes.get(1).changeDate);
   }
+
+  public void testRecordIsReportedWhenNextOneStarts() {
+    final List<CCaseHistoryParser.SubmissionData> reported = new ArrayList<>();
+    final CCaseHistoryParser.StreamingParser parser = new CCaseHistoryParser.StreamingParser(reported::add);
+
+    parser.feedLine("0\u000104-Feb-09.19:46:00");
+    parser.feedLine("1\u0001user");
+    parser.feedLine("2\u0001create version");
+    parser.feedLine("3\u0001");
+    parser.feedLine("4\u0001C:/vob/User1.java@@\\main\\3");
+    parser.feedLine("5\u0001first line");
+    parser.feedLine("second line");
+    Assert.assertEquals(0, reported.size());
+
+    parser.feedLine("0\u000104-Feb-09.17:51:32");
+    Assert.assertEquals(1, reported.size());
+    Assert.assertEquals("@@\\main\\3", reported.get(0).version);
+    Assert.assertEquals("first line\nsecond line", reported.get(0).comment);
+
+    parser.feedLine("4\u0001C:/vob/User1.java@@\\main\\2");
+    parser.finish();
+    Assert.assertEquals(2, reported.size());
+    Assert.assertEquals(1, reported.get(1).order);
+  }
+
+  public void testWindowsLineEndsAndSharedValues() {
+    final String contents = "0\u000104-Feb-09.19:46:00\r\n" +
+                            "1\u0001Irina Chernushina\r\n" +
+                            "2\u0001create version\r\n" +
+                            "3\u0001\r\n" +
+                            "4\u0001C:/vob/User1.java@@\\main\\2\r\n" +
+                            "5\u0001first line\r\n" +
+                            "second line\r\n" +
+                            "0\u000104-Feb-09.17:51:32\r\n" +
+                            "1\u0001Irina Chernushina\r\n" +
+                            "2\u0001create version\r\n" +
+                            "3\u0001\r\n" +
+                            "4\u0001C:/vob/User1.java@@\\main\\1\r\n" +
+                            "5\u0001\r\n";
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( contents );
+    Assert.assertEquals(2, changes.size());
+    Assert.assertEquals("first line\nsecond line", changes.get(0).comment);
+    Assert.assertEquals("@@\\main\\1", changes.get(1).version);
+    Assert.assertEquals("C:/vob/User1.java", changes.get(1).element);
+    Assert.assertSame(changes.get(0).submitter, changes.get(1).submitter);
+    Assert.assertSame(changes.get(0).element, changes.get(1).element);
+  }
+
+  public void testMutableFieldsRecordsStartWithVersion() {
+    final String contents = "4\u0001C:/vob/User1.java@@\\main\\2\n" +
+                            "3\u0001REL_2\n" +
+                            "5\u0001changed by chevent\n" +
+                            "4\u0001C:/vob/User1.java@@\\main\\1\n" +
+                            "3\u0001\n" +
+                            "5\u0001\n";
+    final ArrayList<CCaseHistoryParser.SubmissionData> changes = CCaseHistoryParser.parse( contents );
+    Assert.assertEquals(2, changes.size());
+    Assert.assertEquals("REL_2", changes.get(0).labels);
+    Assert.assertEquals("changed by chevent", changes.get(0).comment);
+    Assert.assertEquals("@@\\main\\1", changes.get(1).version);
+    Assert.assertEquals("", changes.get(1).labels);
+  }
+
+  public void testBranchVersionsAreGroupedUnderBranchPoint() {
+    final List<VcsFileRevision> revisions = new ArrayList<>();
+    revisions.add(revision("@@\\main\\dev\\1", "\\main\\dev\\0", "create version"));
+    revisions.add(revision("@@\\main\\2", "\\main\\1", "create version"));
+    revisions.add(revision("@@\\main\\dev\\0", "\\main\\1", "create version"));
+    revisions.add(revision("@@\\main\\dev", null, CCaseHistoryParser.BRANCH_COMMAND_SIG));
+    revisions.add(revision("@@\\main\\1", "\\main\\0", "create version"));
+
+    final CCaseVersionGraph graph = CCaseVersionGraph.forElement("C:/vob/Graph.java");
+    final List<TreeItem<VcsFileRevision>> roots = graph.createTree(revisions);
+    Assert.assertEquals(2, roots.size());
+    Assert.assertEquals("@@\\main\\2", roots.get(0).getData().getRevisionNumber().asString());
+
+    final TreeItem<VcsFileRevision> branchPoint = roots.get(1);
+    Assert.assertEquals(1, branchPoint.getChildren().size());
+    final TreeItem<VcsFileRevision> branch = branchPoint.getChildren().get(0);
+    Assert.assertEquals("@@\\main\\dev", branch.getData().getRevisionNumber().asString());
+    Assert.assertEquals(2, branch.getChildren().size());
+  }
+
+  private static VcsFileRevision revision(final String version, final String predecessor, final String action) {
+    final CCaseHistoryParser.SubmissionData data = new CCaseHistoryParser.SubmissionData(0);
+    data.version = version;
+    data.predecessor = predecessor;
+    data.action = action;
+    return new CCaseFileRevision(data, "C:/vob/Graph.java", null);
+  }
 }
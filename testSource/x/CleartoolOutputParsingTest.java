@@ -0,0 +1,112 @@
+package x;
+
+import com.intellij.openapi.util.SystemInfo;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.sourceforge.transparent.CheckedOutStatus;
+import net.sourceforge.transparent.Checkin.CheckinMultipleProcessor;
+import net.sourceforge.transparent.CheckoutInfoMultipleProcessor;
+import net.sourceforge.transparent.CheckoutInfoMultipleProcessor.CheckoutInfo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class CleartoolOutputParsingTest extends TestCase
+{
+  private static final String FOO = "C:/vob/src/Foo.java";
+  private static final String BAR = "C:/vob/src/Bar.java";
+  private static final String BAZ = "C:/vob/src/Baz.java";
+  private static final List<String> PATHS = Arrays.asList( FOO, BAR, BAZ );
+
+  public void testCheckinErrorSpanningSeveralLines() {
+    final String output = "Checked in \"C:\\vob\\src\\Bar.java\" version \"\\main\\5\".\n" +
+                          "cleartool: Error: By default, won't create version with data identical to predecessor.\n" +
+                          "cleartool: Error: Unable to check in \"C:\\vob\\src\\Foo.java\".\n" +
+                          "Checked in \"C:\\vob\\src\\Baz.java\" version \"\\main\\2\".\n";
+
+    final Map<String, String> errors = CheckinMultipleProcessor.parseErrors( output, false, PATHS, "Checked in \"" );
+    Assert.assertEquals( 1, errors.size() );
+    Assert.assertEquals( "cleartool: Error: By default, won't create version with data identical to predecessor.\n" +
+                         "cleartool: Error: Unable to check in \"C:\\vob\\src\\Foo.java\".", errors.get( FOO ) );
+  }
+
+  public void testMakeElementWithCheckin() {
+    final String output = "Created element \"C:\\vob\\src\\Foo.java\" (type \"text_file\").\n" +
+                          "Checked in \"C:\\vob\\src\\Foo.java\" version \"\\main\\1\".\n" +
+                          "cleartool: Error: Entry named \"Bar.java\" already exists.\n" +
+                          "cleartool: Error: Unable to create element \"C:\\vob\\src\\Bar.java\".\n";
+
+    final Map<String, String> errors = CheckinMultipleProcessor.parseErrors( output, false, Arrays.asList( FOO, BAR ), "Checked in \"" );
+    Assert.assertEquals( 1, errors.size() );
+    Assert.assertEquals( "cleartool: Error: Entry named \"Bar.java\" already exists.\n" +
+                         "cleartool: Error: Unable to create element \"C:\\vob\\src\\Bar.java\".", errors.get( BAR ) );
+  }
+
+  public void testUndoCheckoutAndCheckout() {
+    final String uncoOutput = "Checkout cancelled for \"C:\\vob\\src\\Foo.java\".\n" +
+                              "cleartool: Error: Element \"C:\\vob\\src\\Bar.java\" is not checked out.\n";
+    Map<String, String> errors = CheckinMultipleProcessor.parseErrors( uncoOutput, false, Arrays.asList( FOO, BAR ), "Checkout cancelled for \"" );
+    Assert.assertEquals( 1, errors.size() );
+    Assert.assertEquals( "cleartool: Error: Element \"C:\\vob\\src\\Bar.java\" is not checked out.", errors.get( BAR ) );
+
+    final String coOutput = "Checked out \"C:\\vob\\src\\Foo.java\" from version \"\\main\\4\".\n" +
+                            "Checked out \"C:\\vob\\src\\Bar.java\" from version \"\\main\\7\".\n";
+    errors = CheckinMultipleProcessor.parseErrors( coOutput, true, Arrays.asList( FOO, BAR ), "Checked out \"" );
+    Assert.assertTrue( errors.isEmpty() );
+  }
+
+  public void testUnquotedErrorWithFailedExitCode() {
+    final String output = "Checked in \"C:\\vob\\src\\Foo.java\" version \"\\main\\3\".\n" +
+                          "cleartool: Error: albd_contact call failed: RPC: Unable to receive; errno = [WINSOCK] Connection reset by peer\n";
+
+    final Map<String, String> errors = CheckinMultipleProcessor.parseErrors( output, false, PATHS, "Checked in \"" );
+    Assert.assertEquals( 2, errors.size() );
+    Assert.assertEquals( output, errors.get( BAR ) );
+    Assert.assertEquals( output, errors.get( BAZ ) );
+
+    //  The same output with a successful exit code blames nobody.
+    Assert.assertTrue( CheckinMultipleProcessor.parseErrors( output, true, PATHS, "Checked in \"" ).isEmpty() );
+  }
+
+  public void testPathsDifferingInCase() {
+    final String output = "Checked in \"c:\\VOB\\src\\foo.java\" version \"\\main\\3\".\n";
+
+    final Map<String, String> errors = CheckinMultipleProcessor.parseErrors( output, false, Arrays.asList( FOO ), "Checked in \"" );
+    if( SystemInfo.isFileSystemCaseSensitive )
+      Assert.assertEquals( output, errors.get( FOO ) );
+    else
+      Assert.assertTrue( errors.isEmpty() );
+  }
+
+  public void testCheckoutCommentsSpanningSeveralLines() {
+    final String output = "C:\\vob\\src\\Foo.java@@\\main\\CHECKEDOUT\treserved\tfirst line\n" +
+                          "second line\n" +
+                          "\n" +
+                          "C:\\vob\\src\\Bar.java@@\\main\\CHECKEDOUT\tunreserved\t\n" +
+                          "cleartool: Error: Not a vob object: \"C:\\vob\\src\\Baz.java\".\n";
+
+    final Map<String, CheckoutInfo> infos = CheckoutInfoMultipleProcessor.parseCheckouts( output, false, PATHS );
+    Assert.assertEquals( CheckedOutStatus.RESERVED, infos.get( FOO ).getStatus() );
+    Assert.assertEquals( "first line\nsecond line", infos.get( FOO ).getComment() );
+    Assert.assertEquals( CheckedOutStatus.UNRESERVED, infos.get( BAR ).getStatus() );
+    Assert.assertEquals( "", infos.get( BAR ).getComment() );
+    Assert.assertSame( CheckoutInfoMultipleProcessor.NOT_CHECKED_OUT, infos.get( BAZ ) );
+  }
+
+  public void testCheckoutsOfPathsDifferingInCase() {
+    final String output = "c:\\VOB\\src\\foo.java@@\\main\\CHECKEDOUT\treserved\tfix\n";
+
+    final Map<String, CheckoutInfo> infos = CheckoutInfoMultipleProcessor.parseCheckouts( output, true, Arrays.asList( FOO ) );
+    if( SystemInfo.isFileSystemCaseSensitive )
+      Assert.assertSame( CheckoutInfoMultipleProcessor.NOT_CHECKED_OUT, infos.get( FOO ) );
+    else
+      Assert.assertEquals( "fix", infos.get( FOO ).getComment() );
+  }
+
+  public void testServerDownLeavesCheckoutsUnknown() {
+    final String output = "cleartool: Error: albd_contact call failed: RPC: Unable to receive; errno = [WINSOCK] Connection reset by peer\n";
+
+    Assert.assertTrue( CheckoutInfoMultipleProcessor.parseCheckouts( output, false, PATHS ).isEmpty() );
+  }
+}